@@ -0,0 +1,117 @@
+package com.gigamonkeys.dungeon;
+
+import static com.gigamonkeys.dungeon.Cascade.*;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Benchmarks for Cascade.
+ */
+public class CascadeBench {
+
+  /**
+   * Set off a chain of dominoes in a room, each of which falls over when the
+   * one before it does, with a cat that jumps whenever anything moves,
+   * including itself, and see how far it gets with and without a budget.
+   * Then time gathering reactions one by one and in parallel in rooms with
+   * more and more things in them, to see where parallel starts to pay.
+   *
+   * Usage: CascadeBench [number of dominoes] [most things in a room]
+   */
+  public static void main(String[] args) {
+    var length = args.length > 0 ? Integer.parseInt(args[0]) : 1_000;
+    var most = args.length > 1 ? Integer.parseInt(args[1]) : 65_536;
+    dominoes(length);
+    crossover(most);
+  }
+
+  private static void dominoes(int length) {
+    var room = new Room("a room full of dominoes");
+    var player = new Player(room, 10);
+    Thing previous = null;
+    for (var i = 0; i < length; i++) {
+      var before = previous;
+      var domino = new Thing("domino" + i, "a domino", true, false, 0) {
+        public Stream<Action> onMove(Action.Move a) {
+          return a.thing() == before ? Stream.of(new Action.Move(this, room, "lying down")) : Stream.empty();
+        }
+      };
+      room.placeThing(domino, "standing up");
+      previous = domino;
+    }
+    var cat = new Thing("cat", "a jumpy cat", true, false, 0) {
+      public Stream<Action> onMove(Action.Move a) {
+        return Stream.of(new Action.Move(this, room, "somewhere else"));
+      }
+    };
+    room.placeThing(cat, "on the windowsill");
+    var first = room.thing("domino0").get();
+
+    var unlimited = new Budget(Integer.MAX_VALUE, Integer.MAX_VALUE, Long.MAX_VALUE);
+    for (var budget : List.of(unlimited, Budget.DEFAULT, unlimited, Budget.DEFAULT)) {
+      var t0 = System.nanoTime();
+      var cascade = new Cascade(player, budget);
+      cascade.addReactions(new Text.Wrapped(), new Action.Move(first, room, "lying down"));
+      System.out.printf(
+        "%s: %,d reactions in %.1f ms%s%n",
+        budget == unlimited ? "No budget" : budget,
+        cascade.reactions(),
+        (System.nanoTime() - t0) / 1e6,
+        cascade.settled() ? ", cut short" : ""
+      );
+    }
+    System.out.println(stats());
+  }
+
+  private static void crossover(int most) {
+    System.out.printf(
+      "%d cores, parallel threshold %s%n",
+      Runtime.getRuntime().availableProcessors(),
+      PARALLEL_THRESHOLD == Integer.MAX_VALUE ? "off" : String.format("%,d", PARALLEL_THRESHOLD)
+    );
+    for (var n = 16; n <= most; n *= 4) {
+      var room = new Room("a crowded hall");
+      var player = new Player(room, 10);
+      for (var i = 0; i < n; i++) {
+        // Guards that take a look around each turn and once in a while
+        // decide to have a go at the player.
+        room.placeThing(
+          new Thing.Monster("guard" + i, "a bored guard", "a dead guard", 10, false) {
+            public Stream<Action> onTurn(Action.Turn a) {
+              var suspicion = (description() + a.player().hitPoints() + name()).hashCode();
+              return alive() && suspicion % 97 == 0 ? Stream.of(new Action.Attack(a.player(), this)) : Stream.empty();
+            }
+          },
+          "standing around"
+        );
+      }
+      var turn = new Action.Turn(player);
+      var unlimited = new Budget(Integer.MAX_VALUE, Integer.MAX_VALUE, Long.MAX_VALUE);
+      var sequential = new Cascade(player, unlimited, Integer.MAX_VALUE);
+      var parallel = new Cascade(player, unlimited, 0);
+      var rounds = Math.max(10, 1_000_000 / n);
+      double[] nanos = new double[2];
+      var same = true;
+      for (var pass = 0; pass < 3; pass++) {
+        for (var which = 0; which < 2; which++) {
+          var cascade = which == 0 ? sequential : parallel;
+          var t0 = System.nanoTime();
+          for (var r = 0; r < rounds; r++) {
+            var actions = cascade.reactionsTo(turn);
+            if (r == 0 && which == 1) same &= actions.equals(sequential.reactionsTo(turn));
+          }
+          nanos[which] = (double) (System.nanoTime() - t0) / rounds;
+        }
+      }
+      System.out.printf(
+        "%,7d things: one by one %,9.1f us, parallel %,9.1f us (%.2fx)%s%n",
+        n,
+        nanos[0] / 1e3,
+        nanos[1] / 1e3,
+        nanos[0] / nanos[1],
+        same ? "" : " DIFFERENT!"
+      );
+    }
+  }
+}
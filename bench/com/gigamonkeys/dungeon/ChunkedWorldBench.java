@@ -0,0 +1,36 @@
+package com.gigamonkeys.dungeon;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.SplittableRandom;
+
+/**
+ * Benchmarks for ChunkedWorld.
+ */
+public class ChunkedWorldBench {
+
+  /**
+   * Take a random walk through a grid world file and report how the chunks
+   * did.
+   *
+   * Usage: ChunkedWorldBench WORLD STORE [moves] [maxChunks]
+   */
+  public static void main(String[] args) throws IOException {
+    var moves = args.length > 2 ? Integer.parseInt(args[2]) : 100_000;
+    var maxChunks = args.length > 3 ? Integer.parseInt(args[3]) : ChunkedWorld.MAX_CHUNKS;
+    var world = ChunkedWorld.open(Path.of(args[0]), Path.of(args[1]), ChunkedWorld.CHUNK_SIZE, maxChunks);
+    var player = new Player(world.start(), 20);
+    var random = new SplittableRandom(42);
+
+    var start = System.nanoTime();
+    for (var i = 0; i < moves; i++) {
+      var d = Direction.values()[random.nextInt(4)];
+      player.room().door(d).ifPresent(player::go);
+    }
+    world.flush();
+    var seconds = (System.nanoTime() - start) / 1e9;
+
+    System.out.printf("%,d moves in %.2f s%n", moves, seconds);
+    System.out.println(world.stats());
+  }
+}
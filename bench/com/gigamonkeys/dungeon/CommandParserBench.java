@@ -0,0 +1,92 @@
+package com.gigamonkeys.dungeon;
+
+import static com.gigamonkeys.dungeon.CommandParser.*;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Benchmarks for CommandParser.
+ */
+public class CommandParserBench {
+
+  /**
+   * Time parsing a mix of bad commands, as they're parsed now and with the
+   * failures thrown and caught as exceptions the way they used to be, with
+   * and without a stack trace. Commands are parsed from a stack the given
+   * number of frames deep, since filling in a trace and unwinding cost more
+   * the deeper it is.
+   *
+   * Usage: CommandParserBench [commands] [stack depth]
+   */
+  public static void main(String[] args) {
+    var count = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+    var depth = args.length > 1 ? Integer.parseInt(args[1]) : 30;
+    var player = new Player(new Maze().build(), 20);
+    var commands = List.<Map.Entry<Parser, String>>of(
+      Map.entry(player::go, "go sideways"),
+      Map.entry(player::go, "go north"),
+      Map.entry(player::go, "go"),
+      Map.entry(player::take, "take unicorn"),
+      Map.entry(player::eat, "eat sandwhich"),
+      Map.entry(player::attack, "attack"),
+      Map.entry(player::put, "put ring on shelf"),
+      Map.entry(a -> player.travel(a, null), "travel to kitchen")
+    );
+    var parsers = new Parser[commands.size()];
+    var tokens = new String[commands.size()][];
+    for (var i = 0; i < parsers.length; i++) {
+      parsers[i] = commands.get(i).getKey();
+      tokens[i] = commands.get(i).getValue().split(" ");
+      if (parsers[i].parse(tokens[i]).ok()) throw new Error("Not a bad command: " + commands.get(i).getValue());
+    }
+
+    for (var pass = 0; pass < 5; pass++) {
+      var nanos = new double[3];
+      long chars = 0;
+      for (var how = 0; how < 3; how++) {
+        var t0 = System.nanoTime();
+        for (var i = 0; i < count; i++) {
+          var n = i % parsers.length;
+          chars += fail(parsers[n], tokens[n], how, depth);
+        }
+        nanos[how] = (double) (System.nanoTime() - t0) / count;
+      }
+      System.out.printf(
+        "%,d bad commands: result %.0f ns each; exception %.0f ns, stackless exception %.0f ns (%,d chars)%n",
+        count,
+        nanos[0],
+        nanos[1],
+        nanos[2],
+        chars
+      );
+    }
+  }
+
+  /**
+   * The length of the error message, gotten from the Result or, if how isn't
+   * 0, from an exception with (1) or without (2) a stack trace.
+   */
+  private static int fail(Parser parser, String[] args, int how, int depth) {
+    try {
+      return failFrom(depth, parser, args, how);
+    } catch (Failure f) {
+      return f.getMessage().length();
+    }
+  }
+
+  private static int failFrom(int depth, Parser parser, String[] args, int how) throws Failure {
+    if (depth > 0) return failFrom(depth - 1, parser, args, how);
+    var result = parser.parse(args);
+    if (how != 0) throw new Failure(result.error(), how == 1);
+    return result.error().length();
+  }
+
+  @SuppressWarnings("serial")
+  private static class Failure extends Exception {
+
+    Failure(String message, boolean trace) {
+      super(message, null, false, trace);
+    }
+  }
+}
@@ -0,0 +1,37 @@
+package com.gigamonkeys.dungeon;
+
+import static com.gigamonkeys.dungeon.Direction.*;
+
+/**
+ * Benchmarks for Generator.
+ */
+public class GeneratorBench {
+
+  /**
+   * Build a world and report how fast and how big it was.
+   */
+  public static void main(String[] args) {
+    var width = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+    var height = args.length > 1 ? Integer.parseInt(args[1]) : width;
+    var seed = args.length > 2 ? Long.parseLong(args[2]) : 42;
+    var config = Generator.Config.of(width, height, seed);
+
+    var runtime = Runtime.getRuntime();
+    System.gc();
+    var before = runtime.totalMemory() - runtime.freeMemory();
+    var start = System.nanoTime();
+    var rooms = new Generator(config).buildAll();
+    var seconds = (System.nanoTime() - start) / 1e9;
+    System.gc();
+    var after = runtime.totalMemory() - runtime.freeMemory();
+
+    System.out.printf(
+      "%,d rooms in %.2f s on %d cores: %,.0f rooms/s, %,.0f bytes/room%n",
+      rooms.length,
+      seconds,
+      runtime.availableProcessors(),
+      rooms.length / seconds,
+      (double) (after - before) / rooms.length
+    );
+  }
+}
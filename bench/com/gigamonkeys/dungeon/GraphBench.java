@@ -0,0 +1,62 @@
+package com.gigamonkeys.dungeon;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * Benchmarks for Graph.
+ */
+public class GraphBench {
+
+  /**
+   * Time finding the distances to every room in a generated world by walking
+   * the Rooms and by walking the graph.
+   *
+   * Usage: GraphBench [WIDTHxHEIGHT]
+   */
+  public static void main(String[] args) {
+    var size = args.length > 0 ? args[0] : "500x500";
+    var start = new Generator(Generator.Config.parse(size, 42)).build();
+
+    var built = System.nanoTime();
+    var graph = Graph.of(start);
+    System.out.printf("Built graph of %,d rooms in %.1f ms%n", graph.size(), (System.nanoTime() - built) / 1e6);
+
+    for (var i = 0; i < 5; i++) {
+      var t0 = System.nanoTime();
+      var byRooms = walk(start);
+      var t1 = System.nanoTime();
+      var byGraph = graph.distances(0);
+      var t2 = System.nanoTime();
+      var max = Arrays.stream(byGraph).max().orElse(0);
+      System.out.printf(
+        "%,d rooms, farthest %,d doors away: rooms %.1f ms, graph %.1f ms%n",
+        byRooms,
+        max,
+        (t1 - t0) / 1e6,
+        (t2 - t1) / 1e6
+      );
+    }
+  }
+
+  /**
+   * Breadth-first walk through the Rooms themselves, returning how many were
+   * reached.
+   */
+  private static int walk(Room start) {
+    Set<Room> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+    var queue = new ArrayDeque<Room>();
+    seen.add(start);
+    queue.add(start);
+    while (!queue.isEmpty()) {
+      var room = queue.remove();
+      for (var d : Direction.values()) {
+        room.door(d).map(door -> door.from(room)).filter(seen::add).ifPresent(queue::add);
+      }
+    }
+    return seen.size();
+  }
+}
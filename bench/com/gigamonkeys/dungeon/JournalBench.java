@@ -0,0 +1,46 @@
+package com.gigamonkeys.dungeon;
+
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Benchmarks for Journal.
+ */
+public class JournalBench {
+
+  /**
+   * Append commands from a bunch of threads as fast as possible and report the
+   * throughput.
+   *
+   * Usage: JournalBench [threads] [commands per thread]
+   */
+  public static void main(String[] args) throws Exception {
+    var threads = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+    var commands = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+    var path = Files.createTempFile("dungeon", ".journal");
+    Files.delete(path);
+
+    try (var journal = Journal.open(path, "maze")) {
+      var start = System.nanoTime();
+      List<Thread> ts = new ArrayList<>();
+      for (var t = 0; t < threads; t++) {
+        var session = t;
+        var thread = new Thread(() -> {
+          for (var turn = 1; turn <= commands; turn++) {
+            journal.command(session, turn, "take the sword and the shield");
+          }
+        });
+        thread.start();
+        ts.add(thread);
+      }
+      for (var t : ts) t.join();
+      journal.sync();
+      var seconds = (System.nanoTime() - start) / 1e9;
+      System.out.printf("%,.0f commands/s%n", threads * commands / seconds);
+      System.out.println(journal.stats());
+    } finally {
+      Files.deleteIfExists(path);
+    }
+  }
+}
@@ -0,0 +1,71 @@
+package com.gigamonkeys.dungeon;
+
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+/**
+ * Benchmarks for MonsterStore.
+ */
+public class MonsterStoreBench {
+
+  /**
+   * Time regenerating and damaging every monster in a random set of rooms of
+   * a generated world, one Monster at a time and with a store.
+   *
+   * Usage: MonsterStoreBench [WIDTHxHEIGHT] [fraction of rooms]
+   */
+  public static void main(String[] args) {
+    var size = args.length > 0 ? args[0] : "1000x1000";
+    var fraction = args.length > 1 ? Double.parseDouble(args[1]) : 0.25;
+    var graph = Graph.of(new Generator(Generator.Config.parse(size, 42)).build());
+    var random = new SplittableRandom(42);
+    var roomIds = IntStream.range(0, graph.size()).filter(r -> random.nextDouble() < fraction).toArray();
+
+    // The same monsters, walked as objects room by room.
+    var byRoom = new Thing.Monster[roomIds.length][];
+    for (var i = 0; i < roomIds.length; i++) {
+      byRoom[i] =
+        graph
+          .room(roomIds[i])
+          .things()
+          .stream()
+          .filter(t -> t instanceof Thing.Monster)
+          .toArray(Thing.Monster[]::new);
+    }
+
+    for (var i = 0; i < 5; i++) {
+      var t0 = System.nanoTime();
+      var touched = 0;
+      for (var monsters : byRoom) {
+        for (var m : monsters) {
+          if (m.alive()) {
+            m.setHitPoints(m.hitPoints() + 1);
+            touched++;
+          }
+        }
+      }
+      for (var monsters : byRoom) {
+        for (var m : monsters) m.setHitPoints(m.hitPoints() - 1);
+      }
+      var t1 = System.nanoTime();
+      System.out.printf("%,d monsters healed and hurt one at a time in %.1f ms%n", touched, (t1 - t0) / 1e6);
+    }
+
+    var t0 = System.nanoTime();
+    var store = MonsterStore.of(graph);
+    System.out.printf("Stored %,d monsters in %.1f ms%n", store.size(), (System.nanoTime() - t0) / 1e6);
+
+    for (var i = 0; i < 5; i++) {
+      var t1 = System.nanoTime();
+      var touched = store.regenerate(roomIds, 1, Integer.MAX_VALUE);
+      store.damage(roomIds, 1);
+      var t2 = System.nanoTime();
+      System.out.printf(
+        "%,d monsters healed and hurt in bulk in %.1f ms; %,d alive%n",
+        touched,
+        (t2 - t1) / 1e6,
+        store.alive()
+      );
+    }
+  }
+}
@@ -0,0 +1,59 @@
+package com.gigamonkeys.dungeon;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Benchmarks for NameIndex.
+ */
+public class NameIndexBench {
+
+  /**
+   * Time finding things by name in a room full of containers full of things,
+   * searching the containers and with the index.
+   *
+   * Usage: NameIndexBench [containers] [things per container]
+   */
+  public static void main(String[] args) {
+    var containers = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+    var each = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+    var room = new Room("a warehouse");
+    var crate = new Thing.Furniture("crate", "a crate");
+    var names = new ArrayList<String>();
+    for (var c = 0; c < containers; c++) {
+      var box = new Thing.Furniture("box" + c, "a box");
+      room.placeThing(box, "on the floor");
+      for (var t = 0; t < each; t++) {
+        var name = "widget" + c + "x" + t;
+        box.placeThing(new Thing.Furniture(name, "a widget"), "in");
+        names.add(name);
+      }
+    }
+    // The same things again in a Thing, which searches its contents.
+    for (var t : List.copyOf(room.things())) crate.placeThing(t, "in");
+    var lookups = 200_000;
+
+    for (var i = 0; i < 3; i++) {
+      var t0 = System.nanoTime();
+      var found = 0;
+      for (var j = 0; j < lookups / 100; j++) {
+        if (crate.thing(names.get((j * 7919) % names.size())).isPresent()) found++;
+      }
+      var t1 = System.nanoTime();
+      for (var t : List.copyOf(crate.things())) room.placeThing(t, "on the floor");
+      var t2 = System.nanoTime();
+      for (var j = 0; j < lookups; j++) {
+        if (room.thing(names.get((j * 7919) % names.size())).isPresent()) found++;
+      }
+      var t3 = System.nanoTime();
+      for (var t : List.copyOf(room.things())) crate.placeThing(t, "in");
+      System.out.printf(
+        "%,d things: search %.2f us per lookup, index %.3f us per lookup (%,d found)%n",
+        names.size() + containers,
+        (t1 - t0) / 1e3 / (lookups / 100),
+        (t3 - t2) / 1e3 / lookups,
+        found
+      );
+    }
+  }
+}
@@ -0,0 +1,90 @@
+package com.gigamonkeys.dungeon;
+
+import java.nio.charset.StandardCharsets;
+import java.util.SplittableRandom;
+
+/**
+ * Benchmarks for Renderer.
+ */
+public class RendererBench {
+
+  /**
+   * Time wrapping random descriptions the way Text.Wrapped used to, splitting
+   * with a regex and then encoding the string, and with a reused Renderer,
+   * checking they come out the same.
+   *
+   * Usage: RendererBench [responses]
+   */
+  public static void main(String[] args) {
+    var count = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+    var words = (
+      "You are in a vaulted hall. In the shadows is a rusty sword and 23 sharp arrows. There is an oaken door to " +
+      "the north. The goblin wanders off to the east. Caf\u00e9, na\u00efve, \uD83D\uDC09!"
+    ).split(" ");
+    var random = new SplittableRandom(42);
+    var responses = new String[count][];
+    for (var i = 0; i < count; i++) {
+      responses[i] = new String[1 + random.nextInt(6)];
+      for (var j = 0; j < responses[i].length; j++) {
+        var sb = new StringBuilder();
+        for (var k = random.nextInt(30); k >= 0; k--) sb.append(words[random.nextInt(words.length)]).append(" ");
+        responses[i][j] = sb.toString();
+      }
+    }
+    var renderer = new Renderer(Text.WRAP);
+    var same = 0;
+    for (var r : responses) {
+      renderer.clear().paragraph();
+      for (var s : r) renderer.words(s);
+      if (renderer.toString().equals(splitAndWrap(r))) same++;
+    }
+
+    for (var pass = 0; pass < 5; pass++) {
+      var t0 = System.nanoTime();
+      long bytes = 0;
+      for (var r : responses) {
+        bytes += splitAndWrap(r).getBytes(StandardCharsets.UTF_8).length;
+      }
+      var t1 = System.nanoTime();
+      for (var r : responses) {
+        renderer.clear().paragraph();
+        for (var s : r) renderer.words(s);
+        bytes -= renderer.bytes().remaining();
+      }
+      var t2 = System.nanoTime();
+      System.out.printf(
+        "%,d responses: split, wrap, and encode %.2f us each, Renderer %.2f us each; %,d of %,d the same%s%n",
+        count,
+        (t1 - t0) / 1e3 / count,
+        (t2 - t1) / 1e3 / count,
+        same,
+        count,
+        bytes == 0 ? "" : " (different lengths!)"
+      );
+    }
+  }
+
+  /**
+   * How Text.Wrapped used to do it, for comparison.
+   */
+  private static String splitAndWrap(String[] items) {
+    var sb = new StringBuilder();
+    int col = 0;
+    for (var text : items) {
+      for (var t : text.split("\\s+")) {
+        if (t.isEmpty()) continue;
+        if (col + 1 + t.length() > Text.WRAP) {
+          sb.append("\n");
+          col = 0;
+        }
+        if (col > 0) {
+          sb.append(" ");
+          col++;
+        }
+        sb.append(t);
+        col += t.length();
+      }
+    }
+    return sb.toString().strip();
+  }
+}
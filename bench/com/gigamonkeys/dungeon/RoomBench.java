@@ -0,0 +1,43 @@
+package com.gigamonkeys.dungeon;
+
+import static com.gigamonkeys.dungeon.Text.*;
+
+/**
+ * Benchmarks for Room.
+ */
+public class RoomBench {
+
+  /**
+   * Time describing every room in a generated world over and over, making the
+   * descriptions from scratch and with the cache.
+   *
+   * Usage: RoomBench [WIDTHxHEIGHT] [passes]
+   */
+  public static void main(String[] args) {
+    var size = args.length > 0 ? args[0] : "100x100";
+    var passes = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+    var graph = Graph.of(new Generator(Generator.Config.parse(size, 42)).build());
+
+    for (var i = 0; i < 3; i++) {
+      var t0 = System.nanoTime();
+      var chars = 0L;
+      for (var p = 0; p < passes; p++) {
+        for (var r = 0; r < graph.size(); r++) chars += graph.room(r).describe().length();
+      }
+      var t1 = System.nanoTime();
+      for (var p = 0; p < passes; p++) {
+        for (var r = 0; r < graph.size(); r++) chars -= graph.room(r).description().length();
+      }
+      var t2 = System.nanoTime();
+      var looks = (double) passes * graph.size();
+      System.out.printf(
+        "%,.0f looks: %.2f us each from scratch, %.3f us cached%s%n",
+        looks,
+        (t1 - t0) / 1e3 / looks,
+        (t2 - t1) / 1e3 / looks,
+        chars == 0 ? "" : " (descriptions differ!)"
+      );
+    }
+    System.out.println(Room.descriptionStats());
+  }
+}
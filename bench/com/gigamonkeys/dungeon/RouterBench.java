@@ -0,0 +1,70 @@
+package com.gigamonkeys.dungeon;
+
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Benchmarks for Router.
+ */
+public class RouterBench {
+
+  /**
+   * Time finding routes, and following them, from random rooms to kinds of
+   * room and landmarks in a generated world.
+   *
+   * Usage: RouterBench [WIDTHxHEIGHT] [queries]
+   */
+  public static void main(String[] args) {
+    var size = args.length > 0 ? args[0] : "1000x1000";
+    var queries = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+    var graph = Graph.of(new Generator(Generator.Config.parse(size, 42)).build());
+    var router = new Router(graph);
+    var random = new SplittableRandom(42);
+
+    var places = List.of(
+      "library",
+      "chapel",
+      "cellar",
+      "cistern",
+      "guard room",
+      "vaulted hall",
+      "the altar",
+      "statue",
+      "barrel"
+    );
+
+    var start = System.nanoTime();
+    for (var p : places) router.route(graph.room(0), p);
+    System.out.printf(
+      "%,d rooms: built %d tables in %.1f ms%n",
+      graph.size(),
+      places.size(),
+      (System.nanoTime() - start) / 1e6
+    );
+
+    var routes = new Router.Route[queries];
+    var froms = new Room[queries];
+    start = System.nanoTime();
+    for (var i = 0; i < queries; i++) {
+      froms[i] = graph.room(random.nextInt(graph.size()));
+      routes[i] = router.route(froms[i], places.get(random.nextInt(places.size()))).orElse(null);
+    }
+    var seconds = (System.nanoTime() - start) / 1e9;
+    System.out.printf(
+      "%,d route queries in %.2f s: %,.0f/s, %.2f us each%n",
+      queries,
+      seconds,
+      queries / seconds,
+      seconds * 1e6 / queries
+    );
+
+    long steps = 0;
+    start = System.nanoTime();
+    for (var i = 0; i < queries; i++) {
+      if (routes[i] != null) steps += routes[i].from(froms[i]).size();
+    }
+    seconds = (System.nanoTime() - start) / 1e9;
+    System.out.printf("Followed them %,d steps in %.2f s: %,.0f steps/s%n", steps, seconds, steps / seconds);
+    System.out.println(router.stats());
+  }
+}
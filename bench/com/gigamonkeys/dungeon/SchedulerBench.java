@@ -0,0 +1,61 @@
+package com.gigamonkeys.dungeon;
+
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.SplittableRandom;
+
+/**
+ * Benchmarks for Scheduler.
+ */
+public class SchedulerBench {
+
+  /**
+   * Time scheduling lots of actions at random delays and ticking until
+   * they've all happened, with the wheel and with a priority queue.
+   *
+   * Usage: SchedulerBench [actions] [longest delay]
+   */
+  public static void main(String[] args) {
+    var count = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+    var longest = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+    var action = new Action.Turn(null);
+
+    for (var pass = 0; pass < 3; pass++) {
+      var random = new SplittableRandom(42);
+      var scheduler = new Scheduler();
+      var t0 = System.nanoTime();
+      for (var i = 0; i < count; i++) scheduler.schedule(1 + random.nextInt(longest), null, action);
+      var t1 = System.nanoTime();
+      long fired = 0;
+      while (scheduler.size() > 0) fired += scheduler.tick().size();
+      var t2 = System.nanoTime();
+
+      random = new SplittableRandom(42);
+      var queue = new PriorityQueue<long[]>(Comparator.<long[]>comparingLong(e -> e[0]).thenComparingLong(e -> e[1]));
+      long clock = 0;
+      var t3 = System.nanoTime();
+      for (var i = 0; i < count; i++) queue.add(new long[] { 1 + random.nextInt(longest), i });
+      var t4 = System.nanoTime();
+      long popped = 0;
+      while (!queue.isEmpty()) {
+        clock++;
+        while (!queue.isEmpty() && queue.peek()[0] == clock) {
+          queue.poll();
+          popped++;
+        }
+      }
+      var t5 = System.nanoTime();
+
+      System.out.printf(
+        "%,d actions over %,d ticks: wheel %.0f ns to schedule, %.0f ns to fire; heap %.0f ns, %.0f ns%s%n",
+        count,
+        longest,
+        (t1 - t0) / (double) count,
+        (t2 - t1) / (double) count,
+        (t4 - t3) / (double) count,
+        (t5 - t4) / (double) count,
+        fired == count && popped == count ? "" : " (lost some!)"
+      );
+    }
+  }
+}
@@ -0,0 +1,41 @@
+package com.gigamonkeys.dungeon;
+
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * Benchmarks for Snapshot.
+ */
+public class SnapshotBench {
+
+  /**
+   * Time saving and restoring a generated world.
+   *
+   * Usage: SnapshotBench [WIDTHxHEIGHT]
+   */
+  public static void main(String[] args) throws IOException {
+    var size = args.length > 0 ? args[0] : "260x260";
+    var player = new Player(new Generator(Generator.Config.parse(size, 42)).build(), 20);
+    var snapshot = new Snapshot(Graph.of(player.room()));
+    var path = Files.createTempFile("dungeon", ".save");
+
+    for (var i = 0; i < 10; i++) {
+      var start = System.nanoTime();
+      var bytes = snapshot.capture(player, i);
+      var captured = System.nanoTime();
+      Snapshot.write(path, bytes);
+      var written = System.nanoTime();
+      snapshot.restore(player, Snapshot.read(path));
+      var restored = System.nanoTime();
+      System.out.printf(
+        "%,d things, %,d bytes: capture %.1f ms, write %.1f ms, restore %.1f ms%n",
+        snapshot.things(),
+        bytes.length,
+        (captured - start) / 1e6,
+        (written - captured) / 1e6,
+        (restored - written) / 1e6
+      );
+    }
+    Files.delete(path);
+  }
+}
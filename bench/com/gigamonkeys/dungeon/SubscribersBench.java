@@ -0,0 +1,55 @@
+package com.gigamonkeys.dungeon;
+
+import java.util.stream.Stream;
+
+/**
+ * Benchmarks for Subscribers.
+ */
+public class SubscribersBench {
+
+  /**
+   * Time getting the reactions to a turn in a room crowded with things that
+   * don't react to anything, showing the turn to everything in the room and
+   * to just the subscribers.
+   *
+   * Usage: SubscribersBench [things] [reactors]
+   */
+  public static void main(String[] args) {
+    var count = args.length > 0 ? Integer.parseInt(args[0]) : 5_000;
+    var reactors = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+    var room = new Room("a crowded market");
+    for (var i = 0; i < count; i++) {
+      room.placeThing(new Thing.Furniture("stall" + i, "a stall"), "in the square");
+    }
+    for (var i = 0; i < reactors; i++) {
+      room.placeThing(
+        new Thing.Monster("rat" + i, 3) {
+          public Stream<Action> onTurn(Action.Turn a) {
+            return Stream.of(new Action.Say(this, "Squeak"));
+          }
+        },
+        "underfoot"
+      );
+    }
+    var player = new Player(room, 20);
+    var turn = new Action.Turn(player);
+    var turns = 20_000;
+
+    for (var i = 0; i < 3; i++) {
+      var t0 = System.nanoTime();
+      var n = 0L;
+      for (var j = 0; j < turns; j++) n += room.allThings().flatMap(turn::reactions).count();
+      var t1 = System.nanoTime();
+      for (var j = 0; j < turns; j++) n -= room.subscribers(turn).stream().flatMap(turn::reactions).count();
+      var t2 = System.nanoTime();
+      System.out.printf(
+        "%,d things, %d reacting: everything %.2f us per action, subscribers %.3f us per action%s%n",
+        count + reactors,
+        reactors,
+        (t1 - t0) / 1e3 / turns,
+        (t2 - t1) / 1e3 / turns,
+        n == 0 ? "" : " (reactions differ!)"
+      );
+    }
+  }
+}
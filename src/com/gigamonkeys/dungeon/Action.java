@@ -5,6 +5,8 @@ import static com.gigamonkeys.dungeon.Text.*;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.stream.Stream;
 
@@ -20,6 +22,15 @@ public interface Action {
    */
   public String description();
 
+  /**
+   * The description of the action as the first thing to happen in a turn,
+   * for actions that set off reactions of their own along the way, which
+   * they add to the turn's cascade so they share its budget.
+   */
+  public default String description(Cascade cascade) {
+    return description();
+  }
+
   /**
    * Get the reactions to this Action from the given thing. This method should
    * just dispatch to the appropriate on<Action> method in the Thing interface
@@ -130,14 +141,24 @@ public interface Action {
     }
   }
 
-  public static record Take(Player p, List<Thing> things) implements Action {
+  /**
+   * Take things, all of each unless counts says how many to take from a
+   * stack.
+   */
+  public static record Take(Player p, List<Thing> things, Map<Thing, Integer> counts) implements Action {
+    public Take(Player p, List<Thing> things) {
+      this(p, things, Map.of());
+    }
+
     public String description() {
       var taken = new ArrayList<String>();
       var notTaken = new ArrayList<String>();
       for (var t : things) {
         if (t.canBeTaken()) {
-          p.placeThing(t, "in your stuff");
-          taken.add(t.description());
+          var some = t.split(counts.getOrDefault(t, t.count()));
+          var n = some.count();
+          p.placeThing(some, "in your stuff");
+          taken.add(n == 1 ? t.description() : numberOf(n, t.description()));
         } else {
           notTaken.add(t.name());
         }
@@ -172,6 +193,128 @@ public interface Action {
     }
   }
 
+  /**
+   * Have an action happen some turns from now. If where is a room the action
+   * only happens if the player is there at the time, e.g. a monster's delayed
+   * attack; if it's null the action happens wherever the player is and
+   * decides for itself what, if anything, the player hears about it.
+   */
+  public static record Later(Player player, int turns, Room where, Action action) implements Action {
+    public String description() {
+      player.scheduler().schedule(turns, where, action);
+      return "";
+    }
+
+    public Stream<Action> reactions(Thing t) {
+      // Nothing's happened yet.
+      return Stream.empty();
+    }
+  }
+
+  /**
+   * A thing, if it's still alive, wandering out through one of the doors of
+   * the room it's in. Which door depends only on the thing's name and the room
+   * so it doesn't matter that the clock isn't saved: a restored or recovered
+   * game, or a replayed one, takes it the same way. The player only hears
+   * about it if it comes or goes from the player's room. It stays put if every
+   * door leads to a room with something of the same name in it already.
+   */
+  public static record Wander(Player player, Thing thing) implements Action {
+    public String description() {
+      if (!thing.alive()) return "";
+      var text = "";
+      if (thing.location().orElse(null) instanceof Room from) {
+        var ways = Stream.of(Direction.values()).filter(d -> canGo(from, d)).toList();
+        if (!ways.isEmpty()) {
+          var d = ways.get(Math.floorMod(Objects.hash(thing.name(), from.baseDescription()), ways.size()));
+          var to = from.door(d).get().from(from);
+          to.placeThing(thing, from.locationMap().get(thing.name()).where());
+          if (from == player.room()) {
+            text = "The " + thing.name() + " wanders off to the " + d.toString().toLowerCase() + ".";
+          } else if (to == player.room()) {
+            text = capitalize(a(thing.description())) + " wanders in.";
+          }
+        }
+      }
+      return text;
+    }
+
+    public Stream<Action> reactions(Thing t) {
+      return Stream.empty();
+    }
+
+    /**
+     * Is there a door that way into a room without anything by the same name,
+     * which placing the thing there would replace?
+     */
+    private boolean canGo(Room from, Direction d) {
+      return from.door(d).map(door -> !door.from(from).locationMap().containsKey(thing.name())).orElse(false);
+    }
+  }
+
+  /**
+   * A monster that's been lying in wait attacking the player, as long as it's
+   * still alive.
+   */
+  public static record Ambush(Player player, Thing monster) implements Action {
+    public String description() {
+      return monster.alive() ? new Attack(player, monster).description() : "";
+    }
+
+    public Stream<Action> reactions(Thing t) {
+      return Stream.empty();
+    }
+  }
+
+  /**
+   * Go through a series of doors, one after the other, stopping early if
+   * anything happens along the way. The reactions to each step go through the
+   * turn's cascade so the whole trip shares one budget.
+   */
+  public static record Travel(Player player, Router.Route route) implements Action {
+    public String description() {
+      // Not run as a turn so the trip is a cascade of its own.
+      return description(new Cascade(player));
+    }
+
+    public String description(Cascade cascade) {
+      var taken = new ArrayList<Direction>();
+      var hitPoints = player.hitPoints();
+      var arrival = "";
+      var reactions = new Text.Wrapped();
+      for (var d = route.next(player.room()); d != null; d = route.next(player.room())) {
+        var door = player.room().door(d);
+        if (door.isEmpty()) break;
+        var go = new Go(player, door.get());
+        arrival = go.description();
+        taken.add(d);
+        cascade.addReactions(reactions, go);
+        if (!reactions.toString().isEmpty() || player.hitPoints() != hitPoints) break;
+      }
+      var text = new Text.Wrapped().add("You travel " + legs(taken) + ".");
+      return text.add(arrival).add(reactions.toString()).toString();
+    }
+
+    public Stream<Action> reactions(Thing t) {
+      // Things react to each step along the way.
+      return Stream.empty();
+    }
+
+    /**
+     * Describe the steps taken, e.g. "east 3 rooms and south 1 room".
+     */
+    private static String legs(List<Direction> steps) {
+      var legs = new ArrayList<String>();
+      for (var i = 0; i < steps.size();) {
+        var d = steps.get(i);
+        var n = 0;
+        for (; i < steps.size() && steps.get(i) == d; i++) n++;
+        legs.add(d.toString().toLowerCase() + " " + numberOf(n, "room"));
+      }
+      return commify(legs);
+    }
+  }
+
   public static record Turn(Player player) implements Action {
     public String description() {
       return null; // This is a pseudo action so no description.
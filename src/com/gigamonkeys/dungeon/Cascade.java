@@ -0,0 +1,262 @@
+package com.gigamonkeys.dungeon;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Works through the reactions to an action, the reactions to those
+ * reactions, and so on, breadth first off an explicit queue rather than by
+ * recursing, so a long chain of things setting each other off can't blow the
+ * stack. Each turn gets one cascade and the cascade has a Budget: a limit on
+ * the number of reactions, on how many reactions deep a chain can go, and on
+ * how long it can take. When any of them runs out the rest of the reactions
+ * are dropped and the player is told things settled down, so no one command
+ * can tie up the thread running it.
+ *
+ * A thing's reactions to a kind of action it already reacted to further up
+ * the same chain of reactions are dropped, e.g. a broom that reacts to being
+ * moved by moving itself, since that would go round forever. It can still
+ * react to the same kind of action in separate chains, e.g. to two different
+ * things being moved.
+ *
+ * In a room with more than a threshold of things that react to an action the
+ * reactions are gathered in parallel, in the current overlay if there is one,
+ * and put back in the order the things were made, so the result is exactly
+ * what gathering them one by one would produce. That's only safe since
+ * gathering reactions doesn't change anything: onX methods just look at the
+ * world and return the actions that will make the changes once they're run.
+ */
+public class Cascade {
+
+  public static final String SETTLED = "Things go on like that for a while and then settle down.";
+
+  // Number of things reacting to one action above which their reactions are
+  // gathered in parallel. Where that starts to pay depends on the machine, so
+  // it's off unless set with -Ddungeon.parallelThreshold=N; CascadeBench
+  // shows where the crossover is.
+  public static final int PARALLEL_THRESHOLD = Integer.getInteger("dungeon.parallelThreshold", Integer.MAX_VALUE);
+
+  // Across all cascades.
+  private static final LongAdder cascades = new LongAdder();
+  private static final LongAdder totalReactions = new LongAdder();
+  private static final LongAdder cutShort = new LongAdder();
+  private static final LongAdder cycles = new LongAdder();
+  private static final LongAccumulator largest = new LongAccumulator(Math::max, 0);
+
+  // Number of cascades by size: zero reactions, one, two or three, four to
+  // seven, and so on.
+  private static final LongAdder[] sizes = Stream.generate(LongAdder::new).limit(33).toArray(LongAdder[]::new);
+
+  /**
+   * Limits on one turn's reactions: the number of them, how deep a chain of
+   * reactions to reactions can go, and how long they can take.
+   */
+  public static record Budget(int reactions, int depth, long nanos) {
+    public static final Budget DEFAULT = new Budget(1_000, 64, 100_000_000L);
+  }
+
+  public static record Stats(long cascades, long reactions, long cutShort, long cycles, long largest, long[] sizes) {
+    public String toString() {
+      var buckets = new ArrayList<String>();
+      for (var i = 0; i < sizes.length; i++) {
+        if (sizes[i] == 0) continue;
+        var low = i == 0 ? 0 : 1L << (i - 1);
+        var high = i == 0 ? 0 : (1L << i) - 1;
+        buckets.add((low == high ? "" + low : low + "-" + high) + ": " + String.format("%,d", sizes[i]));
+      }
+      return String.format(
+        "%,d cascades, %,d reactions, largest %,d; %,d cut short, %,d cycles broken; by size %s",
+        cascades,
+        reactions,
+        largest,
+        cutShort,
+        cycles,
+        String.join(", ", buckets)
+      );
+    }
+  }
+
+  /**
+   * An action waiting to have its reactions gathered: the thing whose
+   * reaction it was, to the action that caused it, and how far down the
+   * chain of reactions it is.
+   */
+  private static record Pending(Action action, Thing by, Pending cause, int depth) {
+    /**
+     * Did the thing already react to this kind of action further up the
+     * chain that led here?
+     */
+    boolean reacted(Thing thing, Class<? extends Action> type) {
+      for (var p = this; p.cause != null; p = p.cause) {
+        if (p.by == thing && p.cause.action.getClass() == type) return true;
+      }
+      return false;
+    }
+  }
+
+  private final Player player;
+  private final Budget budget;
+  private final int parallelThreshold;
+  private final long deadline;
+  private int reactions = 0;
+  private boolean settled = false;
+
+  public Cascade(Player player) {
+    this(player, Budget.DEFAULT);
+  }
+
+  public Cascade(Player player, Budget budget) {
+    this(player, budget, PARALLEL_THRESHOLD);
+  }
+
+  public Cascade(Player player, Budget budget, int parallelThreshold) {
+    this.player = player;
+    this.budget = budget;
+    this.parallelThreshold = parallelThreshold;
+    this.deadline = System.nanoTime() + budget.nanos();
+  }
+
+  public static Stats stats() {
+    var counts = new long[sizes.length];
+    var top = 0;
+    for (var i = 0; i < sizes.length; i++) {
+      counts[i] = sizes[i].sum();
+      if (counts[i] != 0) top = i + 1;
+    }
+    return new Stats(
+      cascades.sum(),
+      totalReactions.sum(),
+      cutShort.sum(),
+      cycles.sum(),
+      largest.get(),
+      Arrays.copyOf(counts, top)
+    );
+  }
+
+  /**
+   * Number of reactions so far.
+   */
+  int reactions() {
+    return reactions;
+  }
+
+  /**
+   * Whether the budget ran out.
+   */
+  public boolean settled() {
+    return settled;
+  }
+
+  /**
+   * Add the descriptions of all the reactions to action, the reactions to
+   * them, and so on, to text. The reactions to each action are gathered from
+   * the things in the player's room at the time and described together before
+   * moving on to the next action in the queue.
+   */
+  public void addReactions(Text.Wrapped text, Action action) {
+    var start = reactions;
+    var queue = new ArrayDeque<Pending>();
+    queue.add(new Pending(action, null, null, 0));
+
+    while (!queue.isEmpty() && !settled) {
+      var p = queue.remove();
+      var batch = reactionsTo(p);
+      if (batch.isEmpty()) continue;
+      if (!affords(p, batch)) {
+        settled = true;
+        cutShort.increment();
+        text.add(SETTLED);
+        break;
+      }
+      reactions += batch.size();
+
+      // Describing an action can change the world so each batch is described
+      // before gathering the reactions to anything in it.
+      for (var r : batch) text.add(r.action().description());
+      queue.addAll(batch);
+    }
+
+    var size = reactions - start;
+    cascades.increment();
+    totalReactions.add(size);
+    largest.accumulate(size);
+    sizes[64 - Long.numberOfLeadingZeros(size)].increment();
+  }
+
+  /**
+   * Run actions that were scheduled for now, with their reactions, skipping
+   * any scheduled for a room the player isn't in. If the budget runs out the
+   * rest wait until next turn.
+   */
+  public void addScheduled(Text.Wrapped text, List<Scheduler.Event> events) {
+    for (var e : events) {
+      if (settled) {
+        player.scheduler().schedule(1, e.where(), e.action());
+        continue;
+      }
+      if (e.where() != null && e.where() != player.room()) continue;
+      text.add(e.action().description());
+      addReactions(text, e.action());
+    }
+  }
+
+  /**
+   * The reactions to an action from the things in the player's room.
+   */
+  List<Action> reactionsTo(Action action) {
+    return reactionsTo(new Pending(action, null, null, 0)).stream().map(Pending::action).toList();
+  }
+
+  /**
+   * The reactions to the pending action from the things in the room that
+   * react to its kind of action, dropping any that would go round in a
+   * circle. Copies the list of things since reacting can change it.
+   */
+  private List<Pending> reactionsTo(Pending p) {
+    var type = p.action().getClass();
+    var batch = new ArrayList<Pending>();
+    var things = List.copyOf(player.room().subscribers(p.action()));
+    var gathered = things.size() > parallelThreshold ? gather(p.action(), things) : null;
+    for (var i = 0; i < things.size(); i++) {
+      var t = things.get(i);
+      var actions = gathered != null ? gathered.get(i) : p.action().reactions(t).toList();
+      // Most things don't react so only look up the chain for ones that do.
+      if (actions.isEmpty()) continue;
+      if (p.reacted(t, type)) {
+        cycles.increment();
+        continue;
+      }
+      for (var a : actions) batch.add(new Pending(a, t, p, p.depth() + 1));
+    }
+    return batch;
+  }
+
+  /**
+   * Each thing's reactions to the action, in the same order as the things.
+   */
+  @SuppressWarnings("try")
+  private static List<List<Action>> gather(Action action, List<Thing> things) {
+    var overlay = Overlay.current();
+    return things
+      .parallelStream()
+      .map(t -> {
+        try (var scope = Overlay.enter(overlay)) {
+          return action.reactions(t).toList();
+        }
+      })
+      .toList();
+  }
+
+  private boolean affords(Pending p, List<Pending> batch) {
+    return (
+      p.depth() < budget.depth() &&
+      reactions + batch.size() <= budget.reactions() &&
+      System.nanoTime() - deadline < 0
+    );
+  }
+}
@@ -0,0 +1,367 @@
+package com.gigamonkeys.dungeon;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.IntConsumer;
+
+/**
+ * A grid world streamed from a world file a chunk at a time. Rooms are grouped
+ * into square chunks of neighbouring grid positions which are loaded whole,
+ * along with the chunks around them, when a player arrives, and dropped again
+ * in least recently used order once more than maxChunks are resident. The
+ * chunks around players are never dropped.
+ *
+ * Doors refer to rooms by id so a door out of a chunk only loads the chunk on
+ * the other side when someone goes through it, and a door keeps working after
+ * the rooms on either side have been dropped and loaded again.
+ *
+ * Any chunk a player has been in may have been changed so it is written to
+ * the store directory, in the world file format, before it is dropped and read
+ * back from there rather than from the world file the next time it's needed.
+ *
+ * Not thread safe; all the players in a world have to take their turns on
+ * the same thread.
+ */
+public class ChunkedWorld {
+
+  public static final int CHUNK_SIZE = 32;
+  public static final int MAX_CHUNKS = 64;
+
+  /**
+   * Counts of what the world has been doing. Hits and misses count looking up
+   * rooms through doors; loads also count chunks loaded in advance.
+   */
+  public static record Stats(
+    long hits,
+    long misses,
+    long loads,
+    long evictions,
+    long writes,
+    long loadNanos,
+    int resident
+  ) {
+    public double hitRate() {
+      return hits + misses == 0 ? 1 : (double) hits / (hits + misses);
+    }
+
+    public double meanLoadMillis() {
+      return loads == 0 ? 0 : loadNanos / 1e6 / loads;
+    }
+
+    public String toString() {
+      return String.format(
+        "%,d chunks resident; hit rate %.2f%% (%,d misses); %,d loads averaging %.2f ms; %,d evictions, %,d writes",
+        resident,
+        hitRate() * 100,
+        misses,
+        loads,
+        meanLoadMillis(),
+        evictions,
+        writes
+      );
+    }
+  }
+
+  private final WorldFile world;
+  private final Path store;
+  private final int chunkSize;
+  private final int maxChunks;
+  private final int chunksWide;
+  private final int chunksHigh;
+
+  // In access order, so the eldest entry is the least recently used chunk.
+  private final Map<Integer, Chunk> resident = new LinkedHashMap<>(16, 0.75f, true);
+  private final Map<Integer, Integer> occupied = new HashMap<>();
+  private final Set<Integer> stored = new HashSet<>();
+
+  private long hits = 0;
+  private long misses = 0;
+  private long loads = 0;
+  private long evictions = 0;
+  private long writes = 0;
+  private long loadNanos = 0;
+
+  private ChunkedWorld(WorldFile world, Path store, int chunkSize, int maxChunks) throws IOException {
+    if (world.width() == 0) throw new IllegalArgumentException("Not a grid world");
+    this.world = world;
+    this.store = store;
+    this.chunkSize = chunkSize;
+    this.maxChunks = maxChunks;
+    this.chunksWide = (world.width() + chunkSize - 1) / chunkSize;
+    this.chunksHigh = (world.height() + chunkSize - 1) / chunkSize;
+
+    Files.createDirectories(store);
+    try (var files = Files.list(store)) {
+      files
+        .map(p -> p.getFileName().toString())
+        .filter(n -> n.startsWith("chunk-") && n.endsWith(".world"))
+        .forEach(n -> stored.add(Integer.parseInt(n.substring(6, n.length() - 6))));
+    }
+  }
+
+  /**
+   * Open a grid world file, keeping changed chunks in the store directory.
+   * Chunks already in the store, e.g. from an earlier run, are used in
+   * preference to the world file.
+   */
+  public static ChunkedWorld open(Path world, Path store) throws IOException {
+    return open(world, store, CHUNK_SIZE, MAX_CHUNKS);
+  }
+
+  public static ChunkedWorld open(Path world, Path store, int chunkSize, int maxChunks) throws IOException {
+    return new ChunkedWorld(WorldFile.open(world), store, chunkSize, maxChunks);
+  }
+
+  public Room start() {
+    return room(0);
+  }
+
+  /**
+   * The room with the given id, loading its chunk if need be. The same Room is
+   * returned for as long as its chunk stays resident.
+   */
+  public Room room(int id) {
+    var c = chunkOf(id);
+    var chunk = resident.get(c);
+    if (chunk != null) {
+      hits++;
+    } else {
+      misses++;
+      chunk = load(c);
+    }
+    return chunk.room(id);
+  }
+
+  /**
+   * The names of all the things in the world.
+   */
+  public List<String> names() {
+    return world.names();
+  }
+
+  public Stats stats() {
+    return new Stats(hits, misses, loads, evictions, writes, loadNanos, resident.size());
+  }
+
+  /**
+   * Write all the resident chunks that have changed, e.g. before shutting
+   * down. They stay resident.
+   */
+  public void flush() {
+    for (var chunk : resident.values()) {
+      if (chunk.dirty) write(chunk);
+    }
+  }
+
+  //////////////////////////////////////////////////////////////////////////////
+  // Players
+
+  private void entered(ChunkRoom room) {
+    var c = room.chunk.id;
+    room.chunk.dirty = true;
+    if (occupied.merge(c, 1, Integer::sum) == 1) {
+      aroundChunk(c, this::chunk);
+    }
+  }
+
+  private void exited(ChunkRoom room) {
+    occupied.computeIfPresent(room.chunk.id, (k, n) -> n > 1 ? n - 1 : null);
+  }
+
+  //////////////////////////////////////////////////////////////////////////////
+  // Chunks
+
+  /**
+   * Rooms whose ids are in one square of the grid.
+   */
+  private static class Chunk {
+
+    final int id;
+    final int x;
+    final int y;
+    final int width;
+    final int height;
+    final int gridWidth;
+    final ChunkRoom[] rooms;
+    boolean dirty = false;
+
+    Chunk(int id, int x, int y, int width, int height, int gridWidth) {
+      this.id = id;
+      this.x = x;
+      this.y = y;
+      this.width = width;
+      this.height = height;
+      this.gridWidth = gridWidth;
+      this.rooms = new ChunkRoom[width * height];
+    }
+
+    /**
+     * Id of the room at index i within the chunk.
+     */
+    int roomId(int i) {
+      return (y + i / width) * gridWidth + x + i % width;
+    }
+
+    ChunkRoom room(int id) {
+      return rooms[(id / gridWidth - y) * width + (id % gridWidth - x)];
+    }
+  }
+
+  private int chunkOf(int id) {
+    var x = id % world.width();
+    var y = id / world.width();
+    return (y / chunkSize) * chunksWide + x / chunkSize;
+  }
+
+  private Chunk chunk(int c) {
+    var chunk = resident.get(c);
+    return chunk != null ? chunk : load(c);
+  }
+
+  private void aroundChunk(int c, IntConsumer action) {
+    var cx = c % chunksWide;
+    var cy = c / chunksWide;
+    for (var y = Math.max(0, cy - 1); y <= Math.min(chunksHigh - 1, cy + 1); y++) {
+      for (var x = Math.max(0, cx - 1); x <= Math.min(chunksWide - 1, cx + 1); x++) {
+        action.accept(y * chunksWide + x);
+      }
+    }
+  }
+
+  private Chunk load(int c) {
+    var start = System.nanoTime();
+    var x = (c % chunksWide) * chunkSize;
+    var y = (c / chunksWide) * chunkSize;
+    var w = Math.min(chunkSize, world.width() - x);
+    var h = Math.min(chunkSize, world.height() - y);
+    var chunk = new Chunk(c, x, y, w, h, world.width());
+
+    try {
+      var source = stored.contains(c) ? WorldFile.open(path(c)) : world;
+      var fromStore = source != world;
+      for (var i = 0; i < chunk.rooms.length; i++) {
+        var id = chunk.roomId(i);
+        var index = fromStore ? i : id;
+        chunk.rooms[i] = new ChunkRoom(id, source.description(index), chunk, this);
+        source.load(chunk.rooms[i], index, (description, room, other) -> new ChunkDoor(description, id, other, this));
+      }
+      // A chunk that has been written out has been changed.
+      chunk.dirty = fromStore;
+    } catch (IOException ioe) {
+      throw new UncheckedIOException(ioe);
+    }
+
+    resident.put(c, chunk);
+    loads++;
+    loadNanos += System.nanoTime() - start;
+    evict(c);
+    return chunk;
+  }
+
+  /**
+   * Drop least recently used chunks until we're within maxChunks or all that
+   * are left are near players or the chunk we just loaded.
+   */
+  private void evict(int loaded) {
+    var i = resident.values().iterator();
+    while (resident.size() > maxChunks && i.hasNext()) {
+      var chunk = i.next();
+      if (chunk.id != loaded && !nearPlayer(chunk.id)) {
+        if (chunk.dirty) write(chunk);
+        i.remove();
+        evictions++;
+      }
+    }
+  }
+
+  private boolean nearPlayer(int c) {
+    var cx = c % chunksWide;
+    var cy = c / chunksWide;
+    for (var o : occupied.keySet()) {
+      if (Math.abs(o % chunksWide - cx) <= 1 && Math.abs(o / chunksWide - cy) <= 1) return true;
+    }
+    return false;
+  }
+
+  private void write(Chunk chunk) {
+    var path = path(chunk.id);
+    var tmp = path.resolveSibling(path.getFileName() + ".tmp");
+    try {
+      try (var writer = new WorldFile.Writer(tmp, chunk.rooms.length, chunk.width, chunk.height, 0)) {
+        for (var room : chunk.rooms) {
+          var doors = new ArrayList<WorldFile.DoorRecord>(4);
+          for (var d : Direction.values()) {
+            room
+              .door(d)
+              .map(ChunkDoor.class::cast)
+              .ifPresent(door -> doors.add(new WorldFile.DoorRecord(d, door.other(room.id), door.description())));
+          }
+          writer.room(room.baseDescription(), doors, room.placedThings());
+        }
+      }
+      Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException ioe) {
+      throw new UncheckedIOException(ioe);
+    }
+    stored.add(chunk.id);
+    chunk.dirty = false;
+    writes++;
+  }
+
+  private Path path(int c) {
+    return store.resolve("chunk-" + c + ".world");
+  }
+
+  /**
+   * A room that knows its id and chunk and tells the world when players come
+   * and go.
+   */
+  private static class ChunkRoom extends Room {
+
+    private final int id;
+    private final Chunk chunk;
+    private final ChunkedWorld world;
+
+    ChunkRoom(int id, String description, Chunk chunk, ChunkedWorld world) {
+      super(description);
+      this.id = id;
+      this.chunk = chunk;
+      this.world = world;
+    }
+
+    void entered(Player player) {
+      world.entered(this);
+    }
+
+    void exited(Player player) {
+      world.exited(this);
+    }
+  }
+
+  /**
+   * A door between two rooms known only by id.
+   */
+  private static record ChunkDoor(String description, int a, int b, ChunkedWorld world) implements Door {
+    public Room from(Room r) {
+      if (r instanceof ChunkRoom cr && (cr.id == a || cr.id == b)) {
+        return world.room(other(cr.id));
+      } else {
+        throw new Error("Not connected room: " + r);
+      }
+    }
+
+    int other(int id) {
+      return id == a ? b : a;
+    }
+  }
+}
@@ -1,6 +1,5 @@
 package com.gigamonkeys.dungeon;
 
-import com.gigamonkeys.dungeon.CommandParser.BadCommandException;
 import com.gigamonkeys.dungeon.CommandParser.Parser;
 import java.util.function.Supplier;
 
@@ -23,59 +22,50 @@ public interface Command {
    */
   public String run(String[] args, Player p);
 
+  /**
+   * Run the command, writing its output to out.
+   */
+  public default void run(String[] args, Player p, Renderer out) {
+    out.text(run(args, p));
+  }
+
   /**
    * The main Command implementation, for commands that produce an Action which
    * can produce reactions and counts as a turn. The combined outputs from the
-   * initial action and all the reactions plus a synthetic Turn action, and
-   * finally any state changes reported by the Player are jammed together and
-   * wrapped as a paragraph.
+   * initial action and all the reactions plus a synthetic Turn action, then
+   * whatever was scheduled to happen this turn, and finally any state changes
+   * reported by the Player are jammed together and wrapped as a paragraph.
    */
   public static record Turn(String verb, String help, Parser parser) implements Command {
     /**
      * Run the command.
      */
     public String run(String[] args, Player p) {
-      try {
-        var action = parser.parse(args);
-
-        // Get this before running any actions since they could change it.
-        var startingState = p.state();
-
-        var text = new Text.Wrapped();
-        text.add(action.description());
-        addReactions(text, action, p);
-        addReactions(text, new Action.Turn(p), p);
-        text.add(p.stateChanges(startingState));
-        return text.toString();
-      } catch (BadCommandException bce) {
-        return bce.getMessage();
-      }
+      var out = new Renderer(Text.WRAP);
+      run(args, p, out);
+      return out.toString();
     }
 
-    /**
-     * Get the description of executing this action and of all the resulting
-     * reactions, recursively.
-     */
-    private void addReactions(Text.Wrapped text, Action action, Player player) {
-      // Adds the reactions in batches because getting the description of each
-      // action may potentially change the state of the world in ways that lead to
-      // ConcurrentModificationExceptions from the stream if we try to do
-      // everything in one big lazy stream.
-      //
-      // N.B. this method does nothing to detect or prevent infinite loops or
-      // sorcerer's apprentice situations so be careful about what reactions you
-      // generate in the various Things.
-
-      // Get the imediate reactions from all the things in the room.
-      var reactions = player.room().allThings().flatMap(action::reactions).toList();
+    public void run(String[] args, Player p, Renderer out) {
+      var result = parser.parse(args);
+      if (!result.ok()) {
+        out.text(result.error());
+        return;
+      }
+      var action = result.action();
 
-      // Add the descriptions of those reactions first.
-      text.add(reactions.stream().map(Action::description));
+      // Get this before running any actions since they could change it.
+      var startingState = p.state();
 
-      // Now get all the reactions to those actions, recursively.
-      for (var a : reactions) {
-        addReactions(text, a, player);
-      }
+      // One budget for everything that happens this turn.
+      var cascade = new Cascade(p);
+      var text = new Text.Wrapped();
+      text.add(action.description(cascade));
+      cascade.addReactions(text, action);
+      cascade.addReactions(text, new Action.Turn(p));
+      cascade.addScheduled(text, p.scheduler().tick());
+      text.add(p.stateChanges(startingState));
+      text.renderTo(out);
     }
   }
 
@@ -40,32 +40,49 @@ public record CommandParser(Player player) {
   }
 
   /**
-   * Interface for command arg parsing. Can't use a generic java.util.function
-   * interface since we need to be able to throw an exception.
+   * Interface for command arg parsing.
    */
   @FunctionalInterface
   public static interface Parser {
-    public Action parse(String[] args) throws BadCommandException;
+    public Result parse(String[] args);
   }
 
   /**
-   * Interface for finally converting to an action which is where the
-   * BadCommandException is actually thrown. Can't use a generic
-   * java.util.function interface so we can nest multiple Parse<> objects via
-   * lambdas. See Player.attack for a good example.
+   * Interface for finally converting to an action. Returns a Result rather
+   * than an Action so we can nest multiple Parse<> objects via lambdas, any
+   * of which can fail. See Player.attack for a good example.
    */
   @FunctionalInterface
   public static interface ToAction<T> {
-    public Action actionify(T value) throws BadCommandException;
+    public Result actionify(T value);
   }
 
-  public static class BadCommandException extends Exception {
+  /**
+   * What a command comes to: an action or, if it was a bad command, the
+   * message to give the player instead. Players mistype a lot so a bad
+   * command is an ordinary result, not an exception. Exactly one of action
+   * and error is set.
+   */
+  public static record Result(Action action, String error) {
+    public Result {
+      if ((action == null) == (error == null)) {
+        throw new IllegalArgumentException("Need exactly one of an action and an error");
+      }
+    }
 
-    BadCommandException(String message) {
-      super(message);
+    public boolean ok() {
+      return action != null;
     }
   }
 
+  public static Result ok(Action action) {
+    return new Result(action, null);
+  }
+
+  public static Result failed(String error) {
+    return new Result(null, error);
+  }
+
   public static interface Parse<T, U> {
     /**
      * Succeed if we can convert the current value to a new value.
@@ -91,12 +108,12 @@ public record CommandParser(Player player) {
     }
 
     /**
-     * Convert the result of the parse to an Action, throwing
-     * BadCommandException if we cannot. A bad command can be caused by a bad
-     * parse or because the ToAction can't produce an action for whatever reason
-     * despite the parse having succeeded.
+     * Convert the result of the parse to an Action, or a failed Result if we
+     * cannot. A bad command can be caused by a bad parse or because the
+     * ToAction can't produce an action for whatever reason despite the parse
+     * having succeeded.
      */
-    public Action toAction(ToAction<T> fn) throws BadCommandException;
+    public Result toAction(ToAction<T> fn);
   }
 
   public static <T, U> Parse<T, U> good(T v, U p) {
@@ -120,7 +137,7 @@ public record CommandParser(Player player) {
       return this;
     }
 
-    public Action toAction(ToAction<T> fn) throws BadCommandException {
+    public Result toAction(ToAction<T> fn) {
       return fn.actionify(value);
     }
 
@@ -142,8 +159,8 @@ public record CommandParser(Player player) {
       return error == null ? bad(previous, errorFn.apply(previous)) : this;
     }
 
-    public Action toAction(ToAction<T> fn) throws BadCommandException {
-      throw new BadCommandException(error);
+    public Result toAction(ToAction<T> fn) {
+      return failed(error);
     }
 
     public String toString() {
@@ -0,0 +1,127 @@
+package com.gigamonkeys.dungeon;
+
+import static com.gigamonkeys.dungeon.Location.PlacedThing;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * What's directly in a Location, both by name and grouped by where in the
+ * location it is, e.g. all the things "on the floor". Both are kept up to date
+ * as things are added and removed so describing a location or checking where
+ * something can be put doesn't have to group everything again each time.
+ *
+ * Callers only ever get read-only views, made once, so reading costs nothing
+ * but the reading. The grouping by place is only built the first time it's
+ * asked for, since most rooms in a big world are never described, and then
+ * kept up to date. The places and the things in each place come out in the
+ * order of HashMaps keyed by place and name, filled in the order of the map by
+ * name, so a world generated from the same seed reads the same every time.
+ */
+public final class Contents {
+
+  /**
+   * Nothing, for locations that haven't had anything put in them. Never
+   * changed since it's only handed out by contents(), never by
+   * writableContents().
+   */
+  static final Contents EMPTY = new Contents();
+
+  private final Map<String, PlacedThing> byName = new HashMap<>();
+  private final Map<String, PlacedThing> byNameView = Collections.unmodifiableMap(byName);
+
+  // Built by grouped() the first time it's needed.
+  private volatile Places places = null;
+
+  /**
+   * The things grouped by place, with a read-only view of each place's things
+   * kept under the same key in views as the place in byPlace.
+   */
+  private static final class Places {
+
+    final Map<String, Map<String, Thing>> byPlace = new HashMap<>();
+    final Map<String, Collection<Thing>> views = new HashMap<>();
+    final Map<String, Collection<Thing>> view = Collections.unmodifiableMap(views);
+
+    void add(String where, String name, Thing thing) {
+      byPlace
+        .computeIfAbsent(
+          where,
+          w -> {
+            var things = new HashMap<String, Thing>();
+            views.put(w, Collections.unmodifiableCollection(things.values()));
+            return things;
+          }
+        )
+        .put(name, thing);
+    }
+
+    void remove(String where, String name) {
+      var things = byPlace.get(where);
+      things.remove(name);
+      if (things.isEmpty()) {
+        byPlace.remove(where);
+        views.remove(where);
+      }
+    }
+  }
+
+  /**
+   * A copy that can be changed without changing this one.
+   */
+  Contents copy() {
+    var copy = new Contents();
+    byName.values().forEach(copy::put);
+    return copy;
+  }
+
+  void put(PlacedThing pt) {
+    var name = pt.thing().name();
+    var old = byName.put(name, pt);
+    var p = places;
+    if (p != null) {
+      if (old != null) p.remove(old.where(), name);
+      p.add(pt.where(), name, pt.thing());
+    }
+  }
+
+  void remove(String name) {
+    var old = byName.remove(name);
+    var p = places;
+    if (p != null && old != null) p.remove(old.where(), name);
+  }
+
+  private Places grouped() {
+    var p = places;
+    if (p == null) {
+      p = new Places();
+      for (var pt : byName.values()) p.add(pt.where(), pt.thing().name(), pt.thing());
+      places = p;
+    }
+    return p;
+  }
+
+  /**
+   * Everything, by name.
+   */
+  public Map<String, PlacedThing> byName() {
+    return byNameView;
+  }
+
+  /**
+   * Everything, by where it is.
+   */
+  public Map<String, Collection<Thing>> byPlace() {
+    return grouped().view;
+  }
+
+  /**
+   * The places with something in them.
+   */
+  public Set<String> places() {
+    return grouped().view.keySet();
+  }
+}
@@ -1,11 +1,11 @@
 package com.gigamonkeys.dungeon;
 
-import java.util.Map;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 /**
- * The directions the player can move. Also supports one-letter
- * abbreviations.
+ * The directions the player can move. Also supports abbreviations: since no
+ * two directions start with the same letter any prefix will do.
  */
 public enum Direction {
   NORTH,
@@ -13,20 +13,24 @@ public enum Direction {
   SOUTH,
   WEST;
 
-  private static Map<String, String> abbrevs = Map.of("N", "NORTH", "E", "EAST", "S", "SOUTH", "W", "WEST");
+  private static final Spelling names = new Spelling();
+
+  static {
+    for (var d : values()) {
+      names.add(d.name().toLowerCase());
+    }
+  }
 
   public Direction opposite() {
     return Direction.class.getEnumConstants()[(ordinal() + 2) % 4];
   }
 
+  public static Optional<Spelling.Suggestion> suggest(String name) {
+    return names.suggest(name.toLowerCase());
+  }
+
   public static Optional<Direction> fromString(String name) {
-    try {
-      if (abbrevs.containsKey(name.toUpperCase())) {
-        name = abbrevs.get(name.toUpperCase());
-      }
-      return Optional.of(Direction.valueOf(name.toUpperCase()));
-    } catch (IllegalArgumentException iae) {
-      return Optional.empty();
-    }
+    var upper = name.toUpperCase();
+    return upper.isEmpty() ? Optional.empty() : Stream.of(values()).filter(d -> d.name().startsWith(upper)).findFirst();
   }
 }
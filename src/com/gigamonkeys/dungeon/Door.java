@@ -4,14 +4,29 @@ package com.gigamonkeys.dungeon;
  * A door connecting two rooms. For now the description is the same on
  * both sides. Might want to make that more flexible.
  */
-public record Door(String description, Room a, Room b) {
-  public Room from(Room r) {
-    if (r == a) {
-      return b;
-    } else if (r == b) {
-      return a;
-    } else {
-      throw new Error("Not connected room: " + r);
+public interface Door {
+  /**
+   * The description of the door, e.g. "oaken door".
+   */
+  public String description();
+
+  /**
+   * The room on the other side of the door from r.
+   */
+  public Room from(Room r);
+
+  /**
+   * A door between two rooms that are both in memory.
+   */
+  public static record Simple(String description, Room a, Room b) implements Door {
+    public Room from(Room r) {
+      if (r == a) {
+        return b;
+      } else if (r == b) {
+        return a;
+      } else {
+        throw new Error("Not connected room: " + r);
+      }
     }
   }
 }
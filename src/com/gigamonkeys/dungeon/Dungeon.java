@@ -1,16 +1,17 @@
 package com.gigamonkeys.dungeon;
 
+import static com.gigamonkeys.dungeon.Text.*;
+
 import java.io.BufferedReader;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.OutputStream;
 import java.io.PrintStream;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Optional;
-import java.util.regex.Pattern;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Collection;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
@@ -19,58 +20,248 @@ import java.util.stream.IntStream;
  */
 public class Dungeon {
 
-  private static final Pattern wordPattern = Pattern.compile("\\W*(\\w+)\\W*");
+  // How many turns between monsters regenerating a hit point, when they do.
+  private static final int REGENERATION_TURNS = 10;
 
   private final Player player;
-  private final BufferedReader in;
-  private final PrintStream out;
-  private final Map<String, Command> commands = new HashMap<>();
+  private final Vocabulary vocabulary;
+  private final Tokenizer tokenizer;
+  private final Verbs verbs;
+  private final Snapshot snapshot;
+  private final Router router;
+  private final Overlay overlay;
 
+  private Path saveFile = Path.of("dungeon.save");
+  private Journal journal = null;
+  private int session = 0;
+  private boolean replaying = false;
+  private long turn = 0;
   private boolean gameOver = false;
+  private MonsterStore monsters = null;
+
+  Dungeon(Player player) {
+    this(player, Graph.of(player.room()));
+  }
+
+  Dungeon(Player player, Graph graph) {
+    this(player, Vocabulary.names(player.room()), new Snapshot(graph), new Router(graph), new Vocabulary(), null);
+  }
+
+  /**
+   * Make a game where the names of the things in the world are already known,
+   * saving a walk over the world to find them. Without the walk the game
+   * can't be saved and the travel command doesn't work.
+   */
+  Dungeon(Player player, Collection<String> names) {
+    this(player, names, null, null, new Vocabulary(), null);
+  }
+
+  /**
+   * Make a game in a shared world. Everything the game changes is kept in the
+   * overlay.
+   */
+  Dungeon(Template template, Overlay overlay) {
+    this(
+      new Player(template.start(), 20),
+      template.names(),
+      template.snapshot(),
+      template.router(),
+      template.vocabulary(),
+      overlay
+    );
+  }
 
-  Dungeon(Player player, InputStream in, OutputStream out) {
+  private Dungeon(
+    Player player,
+    Collection<String> names,
+    Snapshot snapshot,
+    Router router,
+    Vocabulary vocabulary,
+    Overlay overlay
+  ) {
     this.player = player;
-    this.in = new BufferedReader(new InputStreamReader(in));
-    this.out = new PrintStream(out);
+    this.snapshot = snapshot;
+    this.router = router;
+    this.vocabulary = vocabulary;
+    this.tokenizer = new Tokenizer(vocabulary);
+    this.verbs = new Verbs(vocabulary);
+    this.overlay = overlay;
     registerCommands(player);
+    vocabulary.addDirections();
+    vocabulary.add("and");
+    vocabulary.add("with");
+    names.forEach(vocabulary::add);
   }
 
-  private void loop(boolean printCommands) throws IOException {
-    say(player.room().description());
+  /**
+   * Keep the monsters' hit points in a store so wounded monsters anywhere in
+   * the world regenerate as the game goes on. Only for a game with a world of
+   * its own since the store changes the shared world directly.
+   */
+  void regenerateWith(MonsterStore monsters) {
+    if (overlay != null) throw new IllegalStateException("Can't regenerate monsters in a shared world");
+    this.monsters = monsters;
+  }
+
+  void loop(BufferedReader in, PrintStream out, boolean printCommands) throws IOException {
+    out.print(start());
 
     while (!gameOver) {
       out.print("> ");
+      out.flush();
       var line = in.readLine();
       if (line == null) break;
       if (printCommands) out.println(line);
-      var tokens = tokenize(line.toLowerCase());
-      if (tokens.length > 0) {
-        say(doCommand(tokens, player));
-        if (!player.alive()) {
-          say("Ooops. You're dead. Game over.");
-          gameOver = true;
-        }
+      out.print(respond(line));
+    }
+    out.flush();
+  }
+
+  /**
+   * The text to greet a new session with.
+   */
+  @SuppressWarnings("try")
+  String start() {
+    try (var scope = Overlay.enter(overlay)) {
+      return say(player.room().description());
+    }
+  }
+
+  /**
+   * Run one line of input and return the text to send back, formatted exactly
+   * as it should appear. Used directly by front ends that do their own I/O.
+   */
+  synchronized String respond(String line) {
+    var out = new Renderer(Text.WRAP);
+    respond(line, out);
+    return out.toString();
+  }
+
+  /**
+   * Run one line of input, writing the text to send back to out.
+   */
+  @SuppressWarnings("try")
+  synchronized void respond(String line, Renderer out) {
+    var tokens = tokenizer.tokenize(line);
+    if (tokens.length == 0) return;
+
+    turn++;
+    if (journal != null && !replaying) journal.command(session, turn, line);
+
+    try (var scope = Overlay.enter(overlay)) {
+      out.text("\n");
+      doCommand(tokens, player, out);
+      out.text("\n\n");
+      if (monsters != null && turn % REGENERATION_TURNS == 0) monsters.regenerate(1);
+      if (!player.alive()) {
+        out.text(say("Ooops. You're dead. Game over."));
+        gameOver = true;
       }
     }
   }
 
-  private String[] tokenize(String line) {
-    return wordPattern.matcher(line).results().map(r -> r.group(1)).toList().toArray(new String[0]);
+  boolean gameOver() {
+    return gameOver;
+  }
+
+  /**
+   * Number of commands run so far.
+   */
+  synchronized long turn() {
+    return turn;
+  }
+
+  /**
+   * Where the save and restore commands keep the saved game.
+   */
+  void setSaveFile(Path saveFile) {
+    this.saveFile = saveFile;
+  }
+
+  /**
+   * Journal every command from now on as the given session.
+   */
+  void journalTo(Journal journal, int session) {
+    this.journal = journal;
+    this.session = session;
+  }
+
+  /**
+   * Run a command from a journal as the given turn. Saving and restoring do
+   * nothing since the journal records the state after a restore separately.
+   */
+  synchronized void replay(long turn, String line) {
+    this.turn = turn - 1;
+    replaying = true;
+    try {
+      respond(line);
+    } finally {
+      replaying = false;
+    }
+  }
+
+  /**
+   * Put the game back in the state captured by checkpoint or in a journal,
+   * including the turn. What was scheduled isn't captured so it's dropped.
+   */
+  @SuppressWarnings("try")
+  synchronized void recover(byte[] state) throws IOException {
+    if (snapshot == null) throw new IOException("This world can't be restored");
+    try (var scope = Overlay.enter(overlay)) {
+      turn = snapshot.restore(player, state);
+      player.scheduler().clear();
+    }
+  }
+
+  /**
+   * A snapshot of the game as of the end of the last command, or null if this
+   * game can't be saved. Safe to call from threads other than the one playing
+   * the game.
+   */
+  @SuppressWarnings("try")
+  synchronized byte[] checkpoint() {
+    if (snapshot == null) return null;
+    try (var scope = Overlay.enter(overlay)) {
+      return snapshot.capture(player, turn);
+    }
   }
 
-  private void say(String s) {
-    out.println("\n" + s + "\n");
+  /**
+   * This game's changes to a shared world, or null if it has a world of its
+   * own.
+   */
+  Overlay overlay() {
+    return overlay;
+  }
+
+  private String say(String s) {
+    return "\n" + s + "\n\n";
   }
 
   public String doCommand(String[] tokens, Player player) {
-    return Optional
-      .ofNullable(commands.get(tokens[0]))
-      .map(c -> c.run(tokens, player))
-      .orElse("Don't know how to " + tokens[0] + ".");
+    var command = verbs.find(tokens[0]);
+    return command != null ? command.run(tokens, player) : unknown(tokens[0]);
+  }
+
+  private void doCommand(String[] tokens, Player player, Renderer out) {
+    // Only called on what the tokenizer just returned, so it knows the id.
+    var command = verbs.find(tokenizer.id(0), tokens[0]);
+    if (command != null) {
+      command.run(tokens, player, out);
+    } else {
+      out.text(unknown(tokens[0]));
+    }
+  }
+
+  private String unknown(String verb) {
+    var candidates = verbs.candidates(verb).map(Command::verb).toList();
+    return candidates.isEmpty()
+      ? "Don't know how to " + verb + "." + didYouMean(verbs.suggest(verb))
+      : "Do you mean " + either(candidates) + "?";
   }
 
   private void registerCommand(Command command) {
-    commands.put(command.verb(), command);
+    verbs.add(command);
   }
 
   private void registerCommands(Player player) {
@@ -85,9 +276,42 @@ public class Dungeon {
     registerCommand(new Command.Turn("put", "Put an object somewhere.", player::put));
     registerCommand(new Command.Turn("say", "Say something.", player::talk));
     registerCommand(new Command.Turn("take", "Take an item from the room.", player::take));
+    registerCommand(
+      new Command.Turn("travel", "Travel to a kind of room or a landmark.", args -> player.travel(args, router))
+    );
     registerCommand(new Command.NoTurn("help", "Get help on commands.", this::help));
     registerCommand(new Command.NoTurn("inventory", "List the items you are holding.", player::inventory));
     registerCommand(new Command.NoTurn("quit", "Quit the game", this::quit));
+    registerCommand(new Command.NoTurn("restore", "Go back to the last saved game.", this::restore));
+    registerCommand(new Command.NoTurn("save", "Save the game.", this::save));
+  }
+
+  private String save() {
+    if (replaying) return "";
+    if (snapshot == null) return "Sorry, this world can't be saved.";
+    try {
+      Snapshot.write(saveFile, snapshot.capture(player, turn));
+      return "Saved.";
+    } catch (IOException ioe) {
+      return "Couldn't save the game: " + ioe.getMessage();
+    }
+  }
+
+  private String restore() {
+    if (replaying) return "";
+    if (snapshot == null) return "Sorry, this world can't be saved or restored.";
+    try {
+      // The turn count keeps going so the journal's turns only go up. What
+      // was scheduled isn't saved so it's forgotten.
+      snapshot.restore(player, Snapshot.read(saveFile));
+      player.scheduler().clear();
+      if (journal != null) journal.snapshot(session, turn, snapshot.capture(player, turn));
+      return "Restored.\n\n" + player.room().description();
+    } catch (NoSuchFileException e) {
+      return "There's no saved game.";
+    } catch (IOException ioe) {
+      return "Couldn't restore the game: " + ioe.getMessage();
+    }
   }
 
   private String quit() {
@@ -96,12 +320,10 @@ public class Dungeon {
   }
 
   private String help() {
-    var w = commands.values().stream().mapToInt(c -> c.verb().length()).max().getAsInt();
+    var w = verbs.all().mapToInt(c -> c.verb().length()).max().getAsInt();
 
-    var docs = commands
-      .values()
-      .stream()
-      .sorted((a, b) -> a.verb().compareTo(b.verb()))
+    var docs = verbs
+      .all()
       .map(c -> {
         var padding = IntStream
           .range(0, (w + 2) - c.verb().length())
@@ -114,11 +336,108 @@ public class Dungeon {
     return "I understand the following commands:\n\n" + String.join("\n", docs);
   }
 
+  private static final String USAGE =
+    "Usage: Dungeon [--generate WIDTHxHEIGHT] [--seed N] [--world FILE [--store DIR]] [--write-world FILE]\n" +
+    "               [--monster-store] [--journal FILE] [script]";
+
+  /**
+   * Usage: Dungeon [--generate WIDTHxHEIGHT] [--seed N] [--world FILE [--store DIR]] [--write-world FILE]
+   *                [--monster-store] [--journal FILE] [script]
+   *
+   * Plays in the hand-built Maze unless asked to generate a grid world or to
+   * load one from a world file. With --store, a grid world file is streamed a
+   * chunk at a time, keeping changed chunks in the store directory. With
+   * --write-world, writes the world to a file instead of playing. With
+   * --monster-store, the monsters in a Maze or generated world are kept in a
+   * MonsterStore and wounded ones regenerate a hit point every ten turns. With
+   * --journal, every command is journaled and, if the journal already exists,
+   * the game picks up where it left off. If a script is given, commands are
+   * read from it and echoed.
+   */
   public static void main(String[] args) {
+    String script = null;
+    String generate = null;
+    String worldFile = null;
+    String writeWorld = null;
+    String store = null;
+    String journalFile = null;
+    boolean monsterStore = false;
+    Generator.Config config = null;
+    long seed = 42;
+
     try {
-      var in = args.length > 0 ? new FileInputStream(args[0]) : System.in;
-      var player = new Player(new Maze().build(), 20);
-      new Dungeon(player, in, System.out).loop(args.length > 0);
+      for (var i = 0; i < args.length; i++) {
+        switch (args[i]) {
+          case "--generate" -> generate = args[++i];
+          case "--seed" -> seed = Long.parseLong(args[++i]);
+          case "--world" -> worldFile = args[++i];
+          case "--write-world" -> writeWorld = args[++i];
+          case "--store" -> store = args[++i];
+          case "--journal" -> journalFile = args[++i];
+          case "--monster-store" -> monsterStore = true;
+          default -> script = args[i];
+        }
+      }
+      // A chunked world keeps its own changes so replaying a journal over it
+      // would apply them twice.
+      if (journalFile != null && store != null) throw new IllegalArgumentException();
+      // A world file's rooms are loaded lazily so there's no graph to build
+      // the store from up front.
+      if (monsterStore && worldFile != null) throw new IllegalArgumentException();
+      if (generate != null) config = Generator.Config.parse(generate, seed);
+    } catch (ArrayIndexOutOfBoundsException | IllegalArgumentException e) {
+      System.out.println(USAGE);
+      return;
+    }
+
+    try {
+      var generator = config != null ? new Generator(config) : null;
+
+      if (writeWorld != null) {
+        var start = System.nanoTime();
+        if (generator != null) {
+          WorldFile.write(generator, Path.of(writeWorld));
+        } else {
+          WorldFile.write(new Maze().build(), Path.of(writeWorld));
+        }
+        System.out.printf("Wrote %s in %d ms%n", writeWorld, (System.nanoTime() - start) / 1_000_000);
+        return;
+      }
+
+      Dungeon dungeon;
+      ChunkedWorld chunks = null;
+      if (worldFile != null && store != null) {
+        chunks = ChunkedWorld.open(Path.of(worldFile), Path.of(store));
+        dungeon = new Dungeon(new Player(chunks.start(), 20), chunks.names());
+      } else if (worldFile != null) {
+        var world = WorldFile.open(Path.of(worldFile));
+        dungeon = new Dungeon(new Player(world.start(), 20), world.names());
+      } else {
+        var graph = Graph.of(generator != null ? generator.build() : new Maze().build());
+        dungeon = new Dungeon(new Player(graph.room(0), 20), graph);
+        if (monsterStore) dungeon.regenerateWith(MonsterStore.of(graph));
+      }
+
+      Journal journal = null;
+      if (journalFile != null) {
+        var world = worldFile != null
+          ? "world " + worldFile
+          : (generate != null ? "generate " + generate + " " + seed : "maze") + (monsterStore ? " monster-store" : "");
+        var path = Path.of(journalFile);
+        if (Files.exists(path)) Journal.replay(path, world, id -> id == 0 ? dungeon : null);
+        journal = Journal.open(path, world);
+        dungeon.journalTo(journal, 0);
+      }
+
+      var in = script != null ? new FileInputStream(script) : System.in;
+      var reader = new BufferedReader(new InputStreamReader(in));
+      dungeon.loop(reader, System.out, script != null);
+
+      if (journal != null) journal.close();
+      if (chunks != null) {
+        chunks.flush();
+        System.err.println(chunks.stats());
+      }
     } catch (IOException ioe) {
       System.out.println("Yikes. Problem reading command: " + ioe);
     }
@@ -0,0 +1,319 @@
+package com.gigamonkeys.dungeon;
+
+import static com.gigamonkeys.dungeon.Direction.*;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+
+/**
+ * Procedural generator for big grid mazes. Rooms sit on a width by height
+ * grid. Every room but the top left one gets a door either north or west,
+ * which makes a spanning tree so every room is reachable, and then some extra
+ * doors are added to make loops. Rooms are filled with furniture, weapons,
+ * food, and monsters according to the weights in the Config.
+ *
+ * Everything is derived from the seed one row at a time so the rows can be
+ * built in parallel and the result is the same no matter how the work is
+ * split up.
+ */
+public class Generator {
+
+  /**
+   * How to generate a world. The kind weights are relative; thingsPerRoom is
+   * the average number of things per room; loopChance is the chance that a
+   * room gets both a north and a west door rather than just one. Loot is
+   * stacks of up to MAX_STACK small things, e.g. arrows or coins.
+   */
+  public static record Config(
+    int width,
+    int height,
+    long seed,
+    double loopChance,
+    double thingsPerRoom,
+    int furniture,
+    int weapons,
+    int food,
+    int monsters,
+    int loot
+  ) {
+    public static Config of(int width, int height, long seed) {
+      return new Config(width, height, seed, 0.2, 1.5, 4, 2, 2, 2, 2);
+    }
+
+    /**
+     * Parse a size like 1000x1000.
+     */
+    public static Config parse(String size, long seed) {
+      var parts = size.toLowerCase().split("x");
+      if (parts.length != 2) throw new IllegalArgumentException("Expected WIDTHxHEIGHT but got " + size);
+      var width = Integer.parseInt(parts[0]);
+      var height = Integer.parseInt(parts[1]);
+      if (width < 1 || height < 1) throw new IllegalArgumentException("Need at least one room but got " + size);
+      return of(width, height, seed);
+    }
+
+    int rooms() {
+      return width * height;
+    }
+  }
+
+  private static final String[] ROOMS = {
+    "a damp cell",
+    "a dusty corridor",
+    "a vaulted hall",
+    "a guard room",
+    "a crumbling chapel",
+    "a narrow gallery",
+    "a forgotten library",
+    "a musty cellar",
+    "an echoing cavern",
+    "a cramped closet",
+    "an abandoned barracks",
+    "a flooded cistern",
+  };
+
+  private static final String[] DOORS = {
+    "oaken door",
+    "iron gate",
+    "low archway",
+    "rotting door",
+    "narrow passage",
+    "stone arch",
+  };
+
+  private static final String[] ADJECTIVES = {
+    "old",
+    "rusty",
+    "small",
+    "heavy",
+    "battered",
+    "fine",
+    "crude",
+    "ancient",
+  };
+
+  private static final String[] FURNITURE = { "table", "bench", "barrel", "statue", "cabinet", "altar" };
+  private static final String[] FURNITURE_PLACES = { "against the wall", "in the corner", "in the middle of the room" };
+
+  private static final String[] WEAPONS = { "sword", "mace", "spear", "club", "dagger", "hatchet" };
+  private static final String[] FOOD = { "apple", "cheese", "bread", "sausage", "turnip", "pie" };
+  private static final String[] ITEM_PLACES = { "on the floor", "in a corner", "under a pile of rags" };
+
+  private static final String[] LOOT = { "arrow", "coin", "bolt", "gem", "candle", "nail" };
+  private static final int MAX_STACK = 50;
+
+  private static final String[] MONSTERS = { "goblin", "rat", "skeleton", "orc", "slime", "bat" };
+  private static final String[] MONSTER_PLACES = { "in the shadows", "across from you", "by the door" };
+
+  static final byte NORTH_DOOR = 1;
+  static final byte WEST_DOOR = 2;
+
+  /**
+   * One row of rooms, filled but not yet connected, plus which of the north
+   * and west doors each room gets.
+   */
+  static record Row(Room[] rooms, byte[] doors) {}
+
+  private final Config config;
+
+  // Prototypes and attacks, so every rusty sword in the world shares one of
+  // each. Shared by the threads building rows.
+  private final Map<Object, Object> interned = new ConcurrentHashMap<>();
+
+  public Generator(Config config) {
+    this.config = config;
+  }
+
+  /**
+   * Build the world, returning the top left room.
+   */
+  public Room build() {
+    return buildAll()[0];
+  }
+
+  /**
+   * Build the world, returning all the rooms in row-major order.
+   */
+  public Room[] buildAll() {
+    var w = config.width();
+    var h = config.height();
+    var rooms = new Room[config.rooms()];
+    var doors = new byte[config.rooms()];
+
+    rows().forEach(y -> {
+      var row = row(y);
+      System.arraycopy(row.rooms(), 0, rooms, y * w, w);
+      System.arraycopy(row.doors(), 0, doors, y * w, w);
+    });
+
+    // Each door touches two rooms, and Rooms aren't thread safe, so connect
+    // rows in passes where no two threads touch the same room: first the west
+    // doors, which stay within a row, then the north doors from even rows and
+    // finally from odd rows. The rooms are put in one world at the end rather
+    // than merging worlds door by door, which would serialize the passes.
+    var linked = rows().map(y -> connect(rooms, doors, y, WEST_DOOR)).sum();
+    linked += rows().filter(y -> y % 2 == 0).map(y -> connect(rooms, doors, y, NORTH_DOOR)).sum();
+    linked += rows().filter(y -> y % 2 == 1).map(y -> connect(rooms, doors, y, NORTH_DOOR)).sum();
+    Room.joinAll(rooms, linked);
+
+    // Things were numbered in whatever order the threads made them.
+    for (var room : rooms) Thing.renumber(room);
+
+    return rooms;
+  }
+
+  /**
+   * Generate one row. Depends only on the seed and y.
+   */
+  Row row(int y) {
+    var w = config.width();
+    var random = random(y);
+    var row = new Row(new Room[w], new byte[w]);
+    for (var x = 0; x < w; x++) {
+      row.rooms()[x] = new Room(pick(random, ROOMS));
+      fill(row.rooms()[x], random);
+      row.doors()[x] = doors(x, y, random);
+    }
+    return row;
+  }
+
+  /**
+   * Description of the north or west door of the room at index i.
+   */
+  static String doorDescription(int i, int which) {
+    return DOORS[Math.floorMod(i * 31 + which, DOORS.length)];
+  }
+
+  Config config() {
+    return config;
+  }
+
+  private IntStream rows() {
+    return IntStream.range(0, config.height()).parallel();
+  }
+
+  private SplittableRandom random(int row) {
+    return new SplittableRandom(config.seed() * 0x9E3779B97F4A7C15L + row);
+  }
+
+  private byte doors(int x, int y, SplittableRandom random) {
+    if (x == 0 && y == 0) return 0;
+    if (x == 0) return NORTH_DOOR;
+    if (y == 0) return WEST_DOOR;
+    if (random.nextDouble() < config.loopChance()) return NORTH_DOOR | WEST_DOOR;
+    return random.nextBoolean() ? NORTH_DOOR : WEST_DOOR;
+  }
+
+  /**
+   * Link the north or west doors of a row, returning how many there were.
+   */
+  private int connect(Room[] rooms, byte[] doors, int y, int which) {
+    var w = config.width();
+    var linked = 0;
+    for (var x = 0; x < w; x++) {
+      var i = y * w + x;
+      if ((doors[i] & which) != 0) {
+        var description = doorDescription(i, which);
+        if (which == NORTH_DOOR) {
+          rooms[i].link(description, rooms[i - w], NORTH);
+        } else {
+          rooms[i].link(description, rooms[i - 1], WEST);
+        }
+        linked++;
+      }
+    }
+    return linked;
+  }
+
+  private void fill(Room room, SplittableRandom random) {
+    var count = (int) (random.nextDouble() * (2 * config.thingsPerRoom() + 1));
+    Thing furniture = null;
+    // Tracked here rather than asking the room, which would build the room's
+    // name index for every room generated.
+    var placed = new HashMap<String, Thing>();
+    for (var i = 0; i < count; i++) {
+      var thing = thing(random);
+      // A location holds one thing per name, so a second one only survives if
+      // it can go on the stack, e.g. more arrows. A second goblin is dropped.
+      var stack = placed.putIfAbsent(thing.name(), thing);
+      if (stack != null) {
+        if (stack.stacksWith(thing)) stack.setCount(stack.count() + thing.count());
+        continue;
+      }
+
+      if (thing instanceof Thing.Furniture) {
+        room.placeThing(thing, pick(random, FURNITURE_PLACES));
+        furniture = thing;
+      } else if (thing.isMonster()) {
+        room.placeThing(thing, pick(random, MONSTER_PLACES));
+      } else if (furniture != null && random.nextBoolean()) {
+        furniture.placeThing(thing, "on");
+      } else {
+        room.placeThing(thing, pick(random, ITEM_PLACES));
+      }
+    }
+  }
+
+  private Thing thing(SplittableRandom random) {
+    var total = config.furniture() + config.weapons() + config.food() + config.monsters() + config.loot();
+    var r = random.nextInt(total);
+    var adjective = pick(random, ADJECTIVES);
+
+    // Interning the generated strings and prototypes keeps a big world from
+    // holding millions of copies of the same few hundred descriptions.
+    if ((r -= config.furniture()) < 0) {
+      var name = pick(random, FURNITURE);
+      return new Thing.Furniture(prototype(name, text(adjective, " ", name), false, false));
+    } else if ((r -= config.weapons()) < 0) {
+      var name = pick(random, WEAPONS);
+      var damage = 1 + random.nextInt(5);
+      var attack = intern(new Attack.Simple(text("You swing the ", name, "."), damage));
+      return new Thing.Weapon(prototype(name, text(adjective, " ", name), true, false), attack);
+    } else if ((r -= config.food()) < 0) {
+      var name = pick(random, FOOD);
+      var prototype = prototype(name, text(adjective, " ", name), true, false);
+      return new Thing.Food(prototype, text("You eat the ", name, ". Not bad."));
+    } else if ((r -= config.monsters()) < 0) {
+      var name = pick(random, MONSTERS);
+      var hitPoints = 2 + random.nextInt(10);
+      var prototype = prototype(name, text(adjective, " ", name), false, true);
+      var monster = new Thing.Monster(prototype, text("dead", " ", name), hitPoints);
+      monster.setFlags(behavior(name));
+      return monster;
+    } else {
+      var name = pick(random, LOOT);
+      var loot = new Thing(prototype(name, text(adjective, " ", name), true, false), 0);
+      loot.setCount(1 + random.nextInt(MAX_STACK));
+      return loot;
+    }
+  }
+
+  // Rats and bats scurry or flutter off soon after the player shows up while
+  // goblins and orcs wait a bit and then jump them.
+  private static int behavior(String name) {
+    return switch (name) {
+      case "rat", "bat" -> Thing.Monster.WANDERS;
+      case "goblin", "orc" -> Thing.Monster.LURKS;
+      default -> 0;
+    };
+  }
+
+  private Thing.Prototype prototype(String name, String description, boolean isPortable, boolean isMonster) {
+    return intern(new Thing.Prototype(name, description, isPortable, isMonster));
+  }
+
+  @SuppressWarnings("unchecked")
+  private <T> T intern(T value) {
+    return (T) interned.computeIfAbsent(value, k -> k);
+  }
+
+  private static String text(String a, String b, String c) {
+    return (a + b + c).intern();
+  }
+
+  private static String pick(SplittableRandom random, String[] choices) {
+    return choices[random.nextInt(choices.length)];
+  }
+}
@@ -0,0 +1,158 @@
+package com.gigamonkeys.dungeon;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * The rooms reachable from a starting room and the doors between them as
+ * arrays of ints, for anything that needs to look at a whole world at once.
+ * Rooms are numbered from zero, starting with the start room, in the order a
+ * breadth-first walk through the doors, in Direction order, finds them, so
+ * the same world built the same way is always numbered the same way.
+ *
+ * Since a room has at most one door in each direction the adjacency is kept
+ * as a single array with four slots per room, one per Direction: the
+ * neighbour of room r to the d is neighbours[r * 4 + d.ordinal()], or NONE.
+ *
+ * The graph is a picture of the doors when it was built; it isn't updated if
+ * doors are added later but current() says whether any have been added to
+ * its world since. Building a graph makes all the rooms in it one world, so
+ * doors added to some other world, e.g. one being built for another game in
+ * the same process, don't count.
+ */
+public class Graph {
+
+  public static final int NONE = -1;
+
+  private static final int DIRECTIONS = 4;
+
+  private final Room[] rooms;
+  private final int[] neighbours;
+  private final Map<Room, Integer> ids;
+  private final Room.World world;
+  private final long version;
+
+  private Graph(Room[] rooms, int[] neighbours, Map<Room, Integer> ids, Room.World world, long version) {
+    this.rooms = rooms;
+    this.neighbours = neighbours;
+    this.ids = ids;
+    this.world = world;
+    this.version = version;
+  }
+
+  /**
+   * Number all the rooms reachable from start.
+   */
+  public static Graph of(Room start) {
+    // Taken before the walk so doors added during it make the graph stale.
+    var world = start.world();
+    var version = world.doorChanges();
+    var ids = new IdentityHashMap<Room, Integer>();
+    var rooms = new ArrayList<Room>();
+    var neighbours = new int[DIRECTIONS * 16];
+    ids.put(start, 0);
+    rooms.add(start);
+
+    // The rooms list doubles as the queue since rooms are numbered in the
+    // order they're visited.
+    for (var r = 0; r < rooms.size(); r++) {
+      var room = rooms.get(r);
+      if (neighbours.length < (r + 1) * DIRECTIONS) {
+        neighbours = Arrays.copyOf(neighbours, neighbours.length * 2);
+      }
+      for (var d : Direction.values()) {
+        var door = room.door(d);
+        var n = NONE;
+        if (door.isPresent()) {
+          var other = door.get().from(room);
+          var id = ids.get(other);
+          if (id == null) {
+            id = rooms.size();
+            ids.put(other, id);
+            rooms.add(other);
+          }
+          n = id;
+        }
+        neighbours[r * DIRECTIONS + d.ordinal()] = n;
+      }
+    }
+
+    for (var room : rooms) room.join(start);
+
+    var array = rooms.toArray(new Room[0]);
+    return new Graph(array, Arrays.copyOf(neighbours, rooms.size() * DIRECTIONS), ids, world, version);
+  }
+
+  /**
+   * Whether no doors have been added to the graph's world since it was built.
+   */
+  public boolean current() {
+    var now = rooms[0].world();
+    return now == world && now.doorChanges() == version;
+  }
+
+  /**
+   * Number of rooms.
+   */
+  public int size() {
+    return rooms.length;
+  }
+
+  public Room room(int id) {
+    return rooms[id];
+  }
+
+  /**
+   * The id of the given room or NONE if it's not in the graph.
+   */
+  public int id(Room room) {
+    var id = ids.get(room);
+    return id != null ? id : NONE;
+  }
+
+  /**
+   * The room through the door to the d of room id or NONE if there's no door
+   * that way.
+   */
+  public int neighbour(int id, Direction d) {
+    return neighbours[id * DIRECTIONS + d.ordinal()];
+  }
+
+  /**
+   * Number of doors out of room id.
+   */
+  public int degree(int id) {
+    var n = 0;
+    for (var i = id * DIRECTIONS; i < (id + 1) * DIRECTIONS; i++) {
+      if (neighbours[i] != NONE) n++;
+    }
+    return n;
+  }
+
+  /**
+   * The number of doors between room from and every room, NONE for rooms
+   * that can't be reached from it.
+   */
+  public int[] distances(int from) {
+    var distances = new int[rooms.length];
+    Arrays.fill(distances, NONE);
+    var queue = new int[rooms.length];
+    var head = 0;
+    var tail = 0;
+    distances[from] = 0;
+    queue[tail++] = from;
+    while (head < tail) {
+      var r = queue[head++];
+      for (var i = r * DIRECTIONS; i < (r + 1) * DIRECTIONS; i++) {
+        var n = neighbours[i];
+        if (n != NONE && distances[n] == NONE) {
+          distances[n] = distances[r] + 1;
+          queue[tail++] = n;
+        }
+      }
+    }
+    return distances;
+  }
+}
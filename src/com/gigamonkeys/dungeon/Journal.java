@@ -0,0 +1,435 @@
+package com.gigamonkeys.dungeon;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead journal of the commands run in one or more games. Every command
+ * line is appended, along with its session and the turn it ran on, before it
+ * is run, so the state of a game can be rebuilt after a crash by restoring its
+ * last checkpoint and running the commands journaled since.
+ *
+ * Appending only queues the record. A single writer thread takes everything
+ * that has been queued, writes it in one go, and forces it to disk, so one
+ * fsync covers every record that arrived while the previous one was in
+ * progress. The queue is bounded so at most MAX_PENDING records can be lost
+ * in a crash; appending blocks when the writer falls that far behind.
+ *
+ * Once every game has been checkpointed the records journaled before the
+ * checkpoints are no longer needed, so the journal can be rotated: the
+ * current file is moved to previous(path) and a fresh one started, and the
+ * moved file deleted once the checkpoints are safely written. Recovery reads
+ * the previous file, if there is one, then the current one.
+ *
+ * Layout: a header of magic, version, and the world, as a length and UTF-8
+ * bytes, identifying the world the games were played in, then the records.
+ * Each record is a type byte, session, turn (a long), length of the payload,
+ * the payload, and a CRC32 of everything before it. A record cut short by a
+ * crash is dropped when the journal is read or reopened. Reading goes through
+ * a fixed-size buffer, growing only to fit the biggest record, so a journal
+ * can be any size.
+ */
+public class Journal implements Closeable {
+
+  private static final int MAGIC = 0x444a4e4c; // "DJNL"
+  private static final int VERSION = 1;
+  private static final int MAX_PENDING = 4096;
+
+  // Record types
+  private static final byte COMMAND = 0;
+  private static final byte SNAPSHOT = 1;
+
+  private static final int RECORD_OVERHEAD = 1 + 4 + 8 + 4 + 4;
+  private static final int READ_BUFFER = 1 << 16;
+
+  // Queued to have the writer thread start a new file.
+  private static final Entry ROTATE = new Entry(-1, -1, null, null);
+
+  /**
+   * A journaled command, or, if line is null, the state the game was in after
+   * restoring a saved game.
+   */
+  public static record Entry(int session, long turn, String line, byte[] state) {}
+
+  public static record Stats(long records, long batches, long bytes, long syncNanos) {
+    public String toString() {
+      return String.format(
+        "%,d records in %,d batches (%.1f per fsync), %,d bytes, %.2f ms per fsync",
+        records,
+        batches,
+        batches == 0 ? 0 : (double) records / batches,
+        bytes,
+        batches == 0 ? 0 : syncNanos / 1e6 / batches
+      );
+    }
+  }
+
+  private final Path path;
+  private final String world;
+  private final BlockingQueue<Entry> queue = new ArrayBlockingQueue<>(MAX_PENDING);
+  private final Thread writer;
+
+  // Only changed by the writer thread, and by close once it's done.
+  private FileChannel channel;
+  private ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16);
+  private volatile IOException failure = null;
+  private volatile boolean closed = false;
+
+  // Guarded by this.
+  private long appended = 0;
+  private long durable = 0;
+
+  // Updated by the writer thread, guarded by this.
+  private long records = 0;
+  private long batches = 0;
+  private long bytes = 0;
+  private long syncNanos = 0;
+
+  private Journal(Path path, String world, FileChannel channel) {
+    this.path = path;
+    this.world = world;
+    this.channel = channel;
+    this.writer = new Thread(this::write, "journal");
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  /**
+   * Open a journal for appending, creating it if need be. An existing journal
+   * must be for the same world; anything after its last complete record is
+   * discarded.
+   */
+  public static Journal open(Path path, String world) throws IOException {
+    var channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    try {
+      if (channel.size() == 0) {
+        writeHeader(channel, world);
+      } else {
+        var end = read(channel, world, e -> {});
+        channel.truncate(end);
+        channel.position(end);
+      }
+      return new Journal(path, world, channel);
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Journal a command about to be run.
+   */
+  public void command(int session, long turn, String line) {
+    append(new Entry(session, turn, line, null));
+  }
+
+  /**
+   * Journal the state of a game after something that can't be replayed from
+   * the command alone, e.g. restoring a saved game.
+   */
+  public void snapshot(int session, long turn, byte[] state) {
+    append(new Entry(session, turn, null, state));
+  }
+
+  /**
+   * Where the journal is moved to by rotate.
+   */
+  public static Path previous(Path path) {
+    return path.resolveSibling(path.getFileName() + ".previous");
+  }
+
+  /**
+   * Move everything journaled so far to previous(path), replacing whatever
+   * is there, and carry on in a fresh, empty journal. Returns once the move
+   * is done, so anything journaled after that, and nothing before, is in the
+   * new journal.
+   */
+  public void rotate() throws IOException {
+    append(ROTATE);
+    sync();
+  }
+
+  /**
+   * Wait until everything appended so far is on disk.
+   */
+  public void sync() throws IOException {
+    synchronized (this) {
+      var target = appended;
+      while (durable < target && failure == null) {
+        try {
+          wait();
+        } catch (InterruptedException ie) {
+          Thread.currentThread().interrupt();
+          throw new IOException("Interrupted waiting for journal", ie);
+        }
+      }
+    }
+    if (failure != null) throw failure;
+  }
+
+  public Stats stats() {
+    synchronized (this) {
+      return new Stats(records, batches, bytes, syncNanos);
+    }
+  }
+
+  public void close() throws IOException {
+    sync();
+    closed = true;
+    writer.interrupt();
+    try {
+      writer.join();
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+    }
+    channel.close();
+  }
+
+  private void append(Entry entry) {
+    if (failure != null) throw new UncheckedIOException(failure);
+    synchronized (this) {
+      appended++;
+    }
+    try {
+      queue.put(entry);
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      throw new UncheckedIOException(new IOException("Interrupted appending to journal", ie));
+    }
+  }
+
+  /**
+   * The writer thread: write everything queued and force it to disk, over and
+   * over.
+   */
+  private void write() {
+    var batch = new ArrayList<Entry>();
+    while (!closed) {
+      try {
+        batch.add(queue.take());
+      } catch (InterruptedException ie) {
+        continue;
+      }
+      queue.drainTo(batch);
+      try {
+        var start = 0;
+        for (var i = 0; i < batch.size(); i++) {
+          if (batch.get(i) == ROTATE) {
+            writeBatch(batch.subList(start, i));
+            startOver();
+            start = i + 1;
+          }
+        }
+        writeBatch(batch.subList(start, batch.size()));
+      } catch (IOException ioe) {
+        failure = ioe;
+        synchronized (this) {
+          notifyAll();
+        }
+        return;
+      }
+      batch.clear();
+    }
+  }
+
+  private void writeBatch(List<Entry> batch) throws IOException {
+    if (batch.isEmpty()) return;
+    buffer.clear();
+    for (var e : batch) encode(e);
+    buffer.flip();
+    var size = buffer.remaining();
+    while (buffer.hasRemaining()) channel.write(buffer);
+    var start = System.nanoTime();
+    channel.force(false);
+    synchronized (this) {
+      syncNanos += System.nanoTime() - start;
+      records += batch.size();
+      batches++;
+      bytes += size;
+      durable += batch.size();
+      notifyAll();
+    }
+  }
+
+  /**
+   * Move the current file out of the way and start a new one. Everything
+   * before the ROTATE has already been written and forced.
+   */
+  private void startOver() throws IOException {
+    channel.close();
+    Files.move(path, previous(path), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+    writeHeader(channel, world);
+    synchronized (this) {
+      durable++;
+      notifyAll();
+    }
+  }
+
+  private void encode(Entry e) {
+    var payload = e.line() != null ? e.line().getBytes(StandardCharsets.UTF_8) : e.state();
+    if (buffer.remaining() < RECORD_OVERHEAD + payload.length) {
+      var needed = buffer.position() + RECORD_OVERHEAD + payload.length;
+      var bigger = ByteBuffer.allocateDirect(Math.max(buffer.capacity() * 2, needed));
+      buffer.flip();
+      buffer = bigger.put(buffer);
+    }
+    var start = buffer.position();
+    buffer.put(e.line() != null ? COMMAND : SNAPSHOT).putInt(e.session()).putLong(e.turn());
+    buffer.putInt(payload.length).put(payload);
+    var crc = new CRC32();
+    crc.update(buffer.duplicate().position(start).limit(buffer.position()));
+    buffer.putInt((int) crc.getValue());
+  }
+
+  private static void writeHeader(FileChannel channel, String world) throws IOException {
+    var w = world.getBytes(StandardCharsets.UTF_8);
+    var header = ByteBuffer.allocate(12 + w.length).putInt(MAGIC).putInt(VERSION).putInt(w.length).put(w).flip();
+    while (header.hasRemaining()) channel.write(header);
+    channel.force(true);
+  }
+
+  //////////////////////////////////////////////////////////////////////////////
+  // Reading
+
+  /**
+   * Read every complete record in the journal.
+   */
+  public static void read(Path path, String world, Consumer<Entry> entries) throws IOException {
+    try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      read(channel, world, entries);
+    }
+  }
+
+  /**
+   * Rebuild games by running the journaled commands through them. Records for
+   * turns a game has already reached, e.g. because it was restored from a
+   * checkpoint taken after them, are skipped. The sessions function gives the
+   * game for a session id, or null to skip that session.
+   *
+   * A snapshot record has the same turn as the restore command before it, so
+   * it's applied even if the game has already reached that turn; applying it
+   * again is harmless.
+   */
+  public static void replay(Path path, String world, IntFunction<Dungeon> sessions) throws IOException {
+    var failure = new IOException[1];
+    read(
+      path,
+      world,
+      e -> {
+        var dungeon = sessions.apply(e.session());
+        if (dungeon == null) return;
+        try {
+          if (e.line() != null) {
+            if (e.turn() > dungeon.turn()) dungeon.replay(e.turn(), e.line());
+          } else {
+            if (e.turn() >= dungeon.turn()) dungeon.recover(e.state());
+          }
+        } catch (IOException ioe) {
+          if (failure[0] == null) failure[0] = ioe;
+        }
+      }
+    );
+    if (failure[0] != null) throw failure[0];
+  }
+
+  /**
+   * Check the header and read the records, returning the position after the
+   * last complete one.
+   */
+  private static long read(FileChannel channel, String world, Consumer<Entry> entries) throws IOException {
+    var in = new Input(channel);
+    if (!in.need(12)) throw new EOFException("Journal header is incomplete");
+    if (in.buffer.getInt() != MAGIC) throw new IOException("Not a journal");
+    if (in.buffer.getInt() != VERSION) throw new IOException("Unsupported journal version");
+    var length = in.buffer.getInt();
+    if (length < 0 || length > channel.size() || !in.need(length)) {
+      throw new EOFException("Journal header is incomplete");
+    }
+    var w = new byte[length];
+    in.buffer.get(w);
+    if (!new String(w, StandardCharsets.UTF_8).equals(world)) {
+      throw new IOException("Journal is for a different world: " + new String(w, StandardCharsets.UTF_8));
+    }
+
+    var crc = new CRC32();
+    while (in.need(RECORD_OVERHEAD)) {
+      var start = in.position();
+      var size = in.buffer.getInt(in.buffer.position() + 13);
+      // A bad length can't be trusted to size the buffer.
+      if (size < 0 || size > channel.size() - start - RECORD_OVERHEAD) return start;
+      if (!in.need(RECORD_OVERHEAD + size)) return start;
+
+      var b = in.buffer;
+      var end = b.position() + RECORD_OVERHEAD - 4 + size;
+      crc.reset();
+      crc.update(b.duplicate().limit(end));
+      if (b.getInt(end) != (int) crc.getValue()) return start;
+
+      var type = b.get();
+      var session = b.getInt();
+      var turn = b.getLong();
+      var payload = new byte[b.getInt()];
+      b.get(payload);
+      b.getInt();
+
+      var line = type == COMMAND ? new String(payload, StandardCharsets.UTF_8) : null;
+      entries.accept(new Entry(session, turn, line, type == SNAPSHOT ? payload : null));
+    }
+    return in.position();
+  }
+
+  /**
+   * A channel read through a buffer that's refilled as it's used up.
+   */
+  private static final class Input {
+
+    private final FileChannel channel;
+    private ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER).flip();
+
+    Input(FileChannel channel) {
+      this.channel = channel;
+    }
+
+    /**
+     * Make sure at least n bytes are buffered, returning false if the file
+     * ends first.
+     */
+    boolean need(int n) throws IOException {
+      if (buffer.remaining() >= n) return true;
+      if (buffer.capacity() < n) {
+        buffer = ByteBuffer.allocate(Math.max(n, buffer.capacity() * 2)).put(buffer);
+      } else {
+        buffer.compact();
+      }
+      while (buffer.position() < n) {
+        if (channel.read(buffer) < 0) break;
+      }
+      buffer.flip();
+      return buffer.remaining() >= n;
+    }
+
+    /**
+     * Position in the file of the next byte to be read.
+     */
+    long position() throws IOException {
+      return channel.position() - buffer.remaining();
+    }
+  }
+}
@@ -2,13 +2,10 @@ package com.gigamonkeys.dungeon;
 
 import static com.gigamonkeys.dungeon.Text.*;
 
-import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.stream.Collectors;
+import java.util.Set;
 import java.util.stream.Stream;
 
 /**
@@ -28,17 +25,32 @@ public interface Location {
   }
 
   /**
-   * Provide the map in which we manage the things. All other methods in this
-   * interface have a default implementation.
+   * Provide the Contents in which we manage the things. All other methods in
+   * this interface have a default implementation.
    */
-  public Map<String, PlacedThing> locationMap();
+  public Contents contents();
+
+  /**
+   * The Contents to change when adding and removing things. Locations whose
+   * contents may be shared with other games return their own copy.
+   */
+  public default Contents writableContents() {
+    return contents();
+  }
+
+  /**
+   * The things in this location by name. Read-only.
+   */
+  public default Map<String, PlacedThing> locationMap() {
+    return contents().byName();
+  }
 
   /**
    * The valid places for this location. Default implementation is okay but can
    * definitely be overridden.
    */
-  public default List<String> places() {
-    return List.copyOf(placedThings().stream().map(PlacedThing::where).collect(Collectors.toSet()));
+  public default Set<String> places() {
+    return contents().places();
   }
 
   /**
@@ -60,22 +72,55 @@ public interface Location {
   }
 
   /**
-   * Add thing to this location with the where descriptor.
+   * Add thing to this location with the where descriptor. If there's already
+   * a stack of the same thing here the thing is added to the stack, wherever
+   * it is, and is itself no longer anywhere.
    */
   public default void placeThing(Thing thing, String where) {
     thing.location().ifPresent(l -> l.removeThing(thing));
-    locationMap().put(thing.name(), new PlacedThing(thing, where));
+    var existing = locationMap().get(thing.name());
+    if (existing != null && existing.thing().stacksWith(thing)) {
+      existing.thing().setCount(existing.thing().count() + thing.count());
+      return;
+    }
+    writableContents().put(new PlacedThing(thing, where));
     thing.setLocation(this);
+    arrived(thing);
+    changed();
   }
 
   /**
    * Remove thing from this location.
    */
   public default void removeThing(Thing thing) {
-    locationMap().remove(thing.name());
+    writableContents().remove(thing.name());
     thing.clearLocation();
+    departed(thing);
+    changed();
   }
 
+  /**
+   * Called after a thing, along with everything in it, has arrived in this
+   * location, either directly or inside something already here. Things pass
+   * the news along to their own location so the outermost location, e.g. the
+   * Room, hears about everything that happens inside it.
+   */
+  public default void arrived(Thing thing) {}
+
+  /**
+   * Called after a thing, along with everything in it, has been removed from
+   * this location or something in it.
+   */
+  public default void departed(Thing thing) {}
+
+  /**
+   * Called when anything that could show up in the description of this
+   * location, including the state of anything in it, has changed. Things
+   * pass it along to their own location, like arrived and departed, so
+   * whatever caches a description can throw it away.
+   */
+  public default void changed() {}
+
   /**
    * Get the named thing from this location.
    */
@@ -121,9 +166,10 @@ public interface Location {
     return locationMap().values().stream().flatMap(pt -> Stream.concat(Stream.of(pt), pt.thing().allPlacedThings()));
   }
 
-  public default Map<String, List<Thing>> groupByPlace() {
-    var m = new HashMap<String, List<Thing>>();
-    placedThings().forEach(pt -> m.computeIfAbsent(pt.where(), k -> new ArrayList<>()).add(pt.thing()));
-    return m;
+  /**
+   * The things directly in this location by where they are. Read-only.
+   */
+  public default Map<String, Collection<Thing>> groupByPlace() {
+    return contents().byPlace();
   }
 }
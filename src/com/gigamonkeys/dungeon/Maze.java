@@ -32,7 +32,7 @@ public class Maze {
     var tray = new Thing.Furniture("tray", "TV tray");
 
     var treasureChest = new Thing.Furniture("chest", "wooden treasure chest") {
-      boolean open = false;
+      static final int OPEN = 1;
 
       @Override
       public boolean isMonster() {
@@ -46,17 +46,17 @@ public class Maze {
       }
 
       private String descriptor() {
-        return open ? (things().isEmpty() ? "empty" : "open") : "closed";
+        return flag(OPEN) ? (things().isEmpty() ? "empty" : "open") : "closed";
       }
 
       @Override
       public String describeThings() {
-        return open ? super.describeThings() : "";
+        return flag(OPEN) ? super.describeThings() : "";
       }
 
       public String open() {
-        if (!open) {
-          open = true;
+        if (!flag(OPEN)) {
+          setFlag(OPEN, true);
           return "The chest lid opens with a creak. " + describeThings();
         } else {
           return "The " + name() + " is already open.";
@@ -64,8 +64,8 @@ public class Maze {
       }
 
       public String close() {
-        if (open) {
-          open = false;
+        if (flag(OPEN)) {
+          setFlag(OPEN, false);
           return "The chest snaps shut.";
         } else {
           return "The " + name() + " is already closed.";
@@ -0,0 +1,221 @@
+package com.gigamonkeys.dungeon;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * The hit points and rooms of all the monsters in a world kept in parallel
+ * arrays, one slot per monster, so things that happen to lots of monsters at
+ * once, like every monster in a region regenerating or a fireball hitting
+ * every monster in a set of rooms, are a loop over a few arrays rather than a
+ * walk over Thing objects scattered around the heap. Big stores are split
+ * into chunks that are worked on in parallel.
+ *
+ * Once a monster is in the store its hit points live here and the Monster
+ * object is just a handle onto its slot, so hitPoints(), alive(), and
+ * applyAttack() work as before. The room of each monster is kept up to date
+ * as it moves; a monster that isn't directly in one of the graph's rooms,
+ * e.g. one that's been picked up, is in no room.
+ *
+ * The store holds the shared hit points so, as with a Room's or Thing's own
+ * state, a game with an Overlay reads the store until it changes a monster,
+ * after which it has its own copy. The bulk operations change the shared
+ * world directly and so refuse to run with an overlay in effect; a game only
+ * uses a store, to have monsters regenerate, when it has a world of its own
+ * (Dungeon --monster-store).
+ */
+public class MonsterStore {
+
+  // Below this many monsters a chunk isn't worth handing to another thread.
+  private static final int CHUNK = 4096;
+
+  private final Graph graph;
+  private Thing.Monster[] monsters = new Thing.Monster[16];
+  private int[] hitPoints = new int[16];
+  private int[] full = new int[16];
+  private int[] rooms = new int[16];
+  private int size = 0;
+
+  public MonsterStore(Graph graph) {
+    this.graph = graph;
+  }
+
+  /**
+   * A store holding every monster in the graph's rooms, including the ones
+   * in containers, though those aren't in any room as far as the store's
+   * concerned.
+   */
+  public static MonsterStore of(Graph graph) {
+    var store = new MonsterStore(graph);
+    for (var r = 0; r < graph.size(); r++) store.addAll(graph.room(r));
+    return store;
+  }
+
+  private void addAll(Location location) {
+    for (var pt : location.placedThings()) {
+      if (pt.thing() instanceof Thing.Monster m) add(m);
+      addAll(pt.thing());
+    }
+  }
+
+  /**
+   * Move a monster's hit points into the store.
+   */
+  public synchronized void add(Thing.Monster monster) {
+    if (Overlay.current() != null) throw new IllegalStateException("Can't fill a store through an overlay");
+    if (size == monsters.length) {
+      monsters = Arrays.copyOf(monsters, size * 2);
+      hitPoints = Arrays.copyOf(hitPoints, size * 2);
+      full = Arrays.copyOf(full, size * 2);
+      rooms = Arrays.copyOf(rooms, size * 2);
+    }
+    monsters[size] = monster;
+    hitPoints[size] = monster.hitPoints();
+    full[size] = monster.hitPoints();
+    rooms[size] = roomId(monster.location().orElse(null));
+    monster.storeIn(this, size++);
+  }
+
+  public int size() {
+    return size;
+  }
+
+  int hitPoints(int slot) {
+    return hitPoints[slot];
+  }
+
+  void setHitPoints(int slot, int hitPoints) {
+    this.hitPoints[slot] = hitPoints;
+  }
+
+  void moved(int slot, Location location) {
+    // Moves made through an overlay don't move the shared monster.
+    if (monsters[slot].isShared()) rooms[slot] = roomId(location);
+  }
+
+  /**
+   * Number of monsters still alive.
+   */
+  public int alive() {
+    return chunks().map(c -> countAlive(start(c), end(c))).sum();
+  }
+
+  /**
+   * Every living monster in any room gains amount hit points, up to as many
+   * as it had when it was added. Returns the number of monsters that gained
+   * any.
+   */
+  public int regenerate(int amount) {
+    var in = new boolean[graph.size()];
+    Arrays.fill(in, true);
+    return regenerate(in, amount, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Every living monster in the given rooms gains amount hit points, up to
+   * max or as many as it had when it was added, whichever is less. Returns
+   * the number of monsters that gained any.
+   */
+  public int regenerate(int[] roomIds, int amount, int max) {
+    return regenerate(mask(roomIds), amount, max);
+  }
+
+  private int regenerate(boolean[] in, int amount, int max) {
+    var touched = new boolean[in.length];
+    var healed = chunks().map(c -> regenerate(start(c), end(c), in, touched, amount, max)).sum();
+    changed(touched);
+    return healed;
+  }
+
+  /**
+   * Every monster in the given rooms, living or dead, takes damage. Returns
+   * the number of monsters killed by it. As with any other attack, monsters
+   * blown well past dead are destroyed.
+   */
+  public int damage(int[] roomIds, int damage) {
+    var in = mask(roomIds);
+    var touched = new boolean[in.length];
+    var killed = chunks().map(c -> damage(start(c), end(c), in, touched, damage)).sum();
+    // Taking things out of rooms isn't something to do from several threads.
+    for (var i = 0; i < size; i++) {
+      if (hitPoints[i] < -500 && rooms[i] != Graph.NONE && in[rooms[i]]) monsters[i].destroy("");
+    }
+    changed(touched);
+    return killed;
+  }
+
+  private int countAlive(int start, int end) {
+    var n = 0;
+    for (var i = start; i < end; i++) {
+      if (hitPoints[i] > 0) n++;
+    }
+    return n;
+  }
+
+  // The chunks all mark touched rooms but since they only ever set them to
+  // true it doesn't matter which gets there first.
+
+  private int regenerate(int start, int end, boolean[] in, boolean[] touched, int amount, int max) {
+    var n = 0;
+    for (var i = start; i < end; i++) {
+      var r = rooms[i];
+      var hp = hitPoints[i];
+      var most = Math.min(max, full[i]);
+      if (r != Graph.NONE && in[r] && hp > 0 && hp < most) {
+        hitPoints[i] = Math.min(hp + amount, most);
+        touched[r] = true;
+        n++;
+      }
+    }
+    return n;
+  }
+
+  private int damage(int start, int end, boolean[] in, boolean[] touched, int damage) {
+    var n = 0;
+    for (var i = start; i < end; i++) {
+      var r = rooms[i];
+      if (r != Graph.NONE && in[r]) {
+        var hp = hitPoints[i];
+        hitPoints[i] = hp - damage;
+        touched[r] = true;
+        if (hp > 0 && hp <= damage) n++;
+      }
+    }
+    return n;
+  }
+
+  private IntStream chunks() {
+    if (Overlay.current() != null) throw new IllegalStateException("Can't change a shared world through an overlay");
+    var chunks = (size + CHUNK - 1) / CHUNK;
+    var stream = IntStream.range(0, chunks);
+    return chunks > 1 ? stream.parallel() : stream;
+  }
+
+  private int start(int chunk) {
+    return chunk * CHUNK;
+  }
+
+  private int end(int chunk) {
+    return Math.min(size, (chunk + 1) * CHUNK);
+  }
+
+  private boolean[] mask(int[] roomIds) {
+    var in = new boolean[graph.size()];
+    for (var r : roomIds) in[r] = true;
+    return in;
+  }
+
+  /**
+   * Let the rooms know their monsters have changed, since descriptions
+   * depend on whether the monsters in them are alive.
+   */
+  private void changed(boolean[] touched) {
+    for (var r = 0; r < touched.length; r++) {
+      if (touched[r]) graph.room(r).changed();
+    }
+  }
+
+  private int roomId(Location location) {
+    return location instanceof Room room ? graph.id(room) : Graph.NONE;
+  }
+}
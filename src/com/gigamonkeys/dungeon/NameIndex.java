@@ -0,0 +1,88 @@
+package com.gigamonkeys.dungeon;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Everything in a location, however deeply nested, by name, so finding a
+ * thing by name doesn't mean searching through every container in the
+ * location. Also indexes every prefix of every name, at least MIN_PREFIX
+ * characters long, so a name can be abbreviated as long as no other name in
+ * the location starts the same way.
+ *
+ * Kept up to date by the location's arrived and departed methods, which hear
+ * about everything that comes and goes anywhere inside the location.
+ */
+public class NameIndex {
+
+  public static final int MIN_PREFIX = 3;
+
+  private final Map<String, List<Thing>> things = new HashMap<>();
+
+  // Each prefix maps to the distinct names that start with it.
+  private final Map<String, List<String>> prefixes = new HashMap<>();
+
+  /**
+   * Index a thing and everything in it.
+   */
+  public void add(Thing thing) {
+    add1(thing);
+    thing.allThings().forEach(this::add1);
+  }
+
+  /**
+   * Stop indexing a thing and everything in it.
+   */
+  public void remove(Thing thing) {
+    remove1(thing);
+    thing.allThings().forEach(this::remove1);
+  }
+
+  /**
+   * All the things with the name. Usually zero or one but nothing stops two
+   * different containers from each holding something with the same name.
+   */
+  public List<Thing> named(String name) {
+    return things.getOrDefault(name, List.of());
+  }
+
+  /**
+   * The only name that starts with prefix, if there is exactly one.
+   */
+  public Optional<String> complete(String prefix) {
+    if (things.containsKey(prefix)) return Optional.of(prefix);
+    var names = prefixes.get(prefix);
+    return names != null && names.size() == 1 ? Optional.of(names.get(0)) : Optional.empty();
+  }
+
+  public int size() {
+    return things.size();
+  }
+
+  private void add1(Thing thing) {
+    var list = things.computeIfAbsent(thing.name(), k -> new ArrayList<>(1));
+    list.add(thing);
+    if (list.size() == 1) {
+      var name = thing.name();
+      for (var i = MIN_PREFIX; i < name.length(); i++) {
+        prefixes.computeIfAbsent(name.substring(0, i), k -> new ArrayList<>(1)).add(name);
+      }
+    }
+  }
+
+  private void remove1(Thing thing) {
+    var name = thing.name();
+    var list = things.get(name);
+    if (list == null || !list.remove(thing) || !list.isEmpty()) return;
+    things.remove(name);
+    for (var i = MIN_PREFIX; i < name.length(); i++) {
+      var p = name.substring(0, i);
+      var names = prefixes.get(p);
+      names.remove(name);
+      if (names.isEmpty()) prefixes.remove(p);
+    }
+  }
+}
@@ -0,0 +1,290 @@
+package com.gigamonkeys.dungeon;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Non-blocking alternative to Server. A fixed number of event loop threads
+ * each multiplex many connections on a Selector, decoding complete lines and
+ * running them through the connection's Dungeon on the loop thread. Responses
+ * are written back through pooled direct buffers so an idle connection only
+ * costs its changes to the shared world plus a small line buffer.
+ */
+public class NioServer {
+
+  private static final int BUFFER_SIZE = 8 * 1024;
+  private static final int MAX_LINE = 1024;
+  private static final int POOLED_BUFFERS = 64;
+
+  private final InetSocketAddress address;
+  private final EventLoop[] loops;
+
+  public NioServer(InetSocketAddress address, int threads) throws IOException {
+    this.address = address;
+    this.loops = new EventLoop[threads];
+    var template = new Template(new Maze().build());
+    for (var i = 0; i < threads; i++) {
+      loops[i] = new EventLoop(template);
+    }
+  }
+
+  /**
+   * Accept connections forever, dealing them out round-robin to the event
+   * loops.
+   */
+  public void serve() throws IOException {
+    for (var i = 0; i < loops.length; i++) {
+      var t = new Thread(loops[i], "dungeon-loop-" + i);
+      t.setDaemon(true);
+      t.start();
+    }
+
+    try (var server = ServerSocketChannel.open()) {
+      server.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+      server.bind(address, 1024);
+      System.out.println("Dungeon listening on " + server.getLocalAddress() + " with " + loops.length + " loops");
+      var next = 0;
+      while (true) {
+        var channel = server.accept();
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        loops[next].add(channel);
+        next = (next + 1) % loops.length;
+      }
+    }
+  }
+
+  /**
+   * One selector thread and the connections it owns. Everything except the
+   * queue of newly accepted channels is confined to the loop's thread.
+   */
+  private static class EventLoop implements Runnable {
+
+    private final Selector selector;
+    private final Queue<SocketChannel> incoming = new ConcurrentLinkedQueue<>();
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final BufferPool pool = new BufferPool();
+    private final Renderer renderer = new Renderer(Text.WRAP, BUFFER_SIZE);
+    private final Template template;
+
+    EventLoop(Template template) throws IOException {
+      this.selector = Selector.open();
+      this.template = template;
+    }
+
+    void add(SocketChannel channel) {
+      incoming.add(channel);
+      selector.wakeup();
+    }
+
+    public void run() {
+      while (true) {
+        try {
+          selector.select();
+          register();
+          var keys = selector.selectedKeys();
+          for (var key : keys) {
+            handle(key);
+          }
+          keys.clear();
+        } catch (IOException ioe) {
+          System.out.println("Yikes. Event loop problem: " + ioe);
+        }
+      }
+    }
+
+    private void register() {
+      SocketChannel channel;
+      while ((channel = incoming.poll()) != null) {
+        try {
+          var connection = new Connection(channel, template.newGame());
+          connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+          renderer.clear().text(connection.dungeon.start()).text("> ");
+          send(connection);
+        } catch (IOException ioe) {
+          close(channel);
+        } catch (RuntimeException e) {
+          System.err.println("Couldn't start a game: " + e);
+          close(channel);
+        }
+      }
+    }
+
+    /**
+     * Deal with whatever's ready on one connection. A bug in the game only
+     * takes down the connection it happened on, not the loop and every other
+     * connection on it.
+     */
+    private void handle(SelectionKey key) {
+      var connection = (Connection) key.attachment();
+      try {
+        if (key.isValid() && key.isWritable()) {
+          flush(connection);
+        }
+        if (key.isValid() && key.isReadable()) {
+          read(connection);
+        }
+      } catch (IOException ioe) {
+        close(connection);
+      } catch (RuntimeException e) {
+        System.err.println("Closing connection after error: " + e);
+        close(connection);
+      }
+    }
+
+    private void read(Connection connection) throws IOException {
+      readBuffer.clear();
+      var n = connection.channel.read(readBuffer);
+      if (n < 0) {
+        close(connection);
+        return;
+      }
+      readBuffer.flip();
+      while (readBuffer.hasRemaining() && !connection.closing) {
+        var b = readBuffer.get();
+        if (b == '\n') {
+          var line = connection.takeLine();
+          connection.dungeon.respond(line, renderer.clear());
+          if (connection.dungeon.gameOver()) {
+            connection.closing = true;
+          } else {
+            renderer.text("> ");
+          }
+          send(connection);
+        } else if (b != '\r') {
+          connection.append(b);
+        }
+      }
+    }
+
+    /**
+     * Copy what's been rendered into pooled buffers queued on the connection
+     * and write as much as the socket will take right now.
+     */
+    private void send(Connection connection) throws IOException {
+      var bytes = renderer.bytes();
+      do {
+        var buffer = pool.take();
+        var n = Math.min(buffer.remaining(), bytes.remaining());
+        buffer.put(buffer.position(), bytes, bytes.position(), n).position(buffer.position() + n).flip();
+        bytes.position(bytes.position() + n);
+        connection.output.add(buffer);
+      } while (bytes.hasRemaining());
+      flush(connection);
+    }
+
+    private void flush(Connection connection) throws IOException {
+      var output = connection.output;
+      while (!output.isEmpty()) {
+        var buffer = output.peek();
+        connection.channel.write(buffer);
+        if (buffer.hasRemaining()) {
+          // Socket is full. Stop reading until the client catches up.
+          connection.key.interestOps(SelectionKey.OP_WRITE);
+          return;
+        }
+        pool.give(output.poll());
+      }
+      if (connection.closing) {
+        close(connection);
+      } else {
+        connection.key.interestOps(SelectionKey.OP_READ);
+      }
+    }
+
+    private void close(Connection connection) {
+      ByteBuffer buffer;
+      while ((buffer = connection.output.poll()) != null) {
+        pool.give(buffer);
+      }
+      close(connection.channel);
+    }
+
+    private void close(SocketChannel channel) {
+      try {
+        channel.close();
+      } catch (IOException ioe) {
+        // Nothing more we can do.
+      }
+    }
+  }
+
+  /**
+   * Per-connection state: the game plus a partial line and any output the
+   * socket hasn't accepted yet.
+   */
+  private static class Connection {
+
+    final SocketChannel channel;
+    final Dungeon dungeon;
+    final Queue<ByteBuffer> output = new ArrayDeque<>(2);
+
+    SelectionKey key;
+    boolean closing = false;
+
+    private byte[] line = new byte[64];
+    private int length = 0;
+
+    Connection(SocketChannel channel, Dungeon dungeon) {
+      this.channel = channel;
+      this.dungeon = dungeon;
+    }
+
+    void append(byte b) {
+      if (length == line.length) {
+        if (length == MAX_LINE) return; // Silently truncate absurdly long lines.
+        line = Arrays.copyOf(line, Math.min(MAX_LINE, length * 2));
+      }
+      line[length++] = b;
+    }
+
+    String takeLine() {
+      var s = new String(line, 0, length, StandardCharsets.UTF_8);
+      length = 0;
+      return s;
+    }
+  }
+
+  /**
+   * Free list of direct output buffers. Confined to one event loop thread.
+   */
+  private static class BufferPool {
+
+    private final ArrayDeque<ByteBuffer> free = new ArrayDeque<>();
+
+    ByteBuffer take() {
+      var buffer = free.poll();
+      return buffer != null ? buffer : ByteBuffer.allocateDirect(BUFFER_SIZE);
+    }
+
+    void give(ByteBuffer buffer) {
+      if (free.size() < POOLED_BUFFERS) {
+        buffer.clear();
+        free.push(buffer);
+      }
+    }
+  }
+
+  public static void main(String[] args) {
+    var port = args.length > 0 ? Integer.parseInt(args[0]) : Server.DEFAULT_PORT;
+    var threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+    var host = args.length > 2 ? args[2] : InetAddress.getLoopbackAddress().getHostAddress();
+    try {
+      new NioServer(new InetSocketAddress(host, port), threads).serve();
+    } catch (IOException ioe) {
+      System.out.println("Yikes. Server died: " + ioe);
+    }
+  }
+}
@@ -0,0 +1,99 @@
+package com.gigamonkeys.dungeon;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+
+/**
+ * One game's changes to a world shared with other games. Rooms and Things
+ * keep their changeable state in a small state object; while an overlay is in
+ * effect on a thread, reading that state reads the overlay's copy if it has
+ * one and the shared state otherwise, and changing it first copies the shared
+ * state into the overlay. So the shared world is never changed and each game
+ * only pays for what it has changed.
+ *
+ * With no overlay in effect the state is read and changed in place, which is
+ * what a game with a world of its own wants.
+ */
+public class Overlay {
+
+  private static final ThreadLocal<Overlay> CURRENT = new ThreadLocal<>();
+
+  private final Map<Object, Object> copies = new IdentityHashMap<>();
+
+  /**
+   * Puts an overlay in effect on the current thread until closed, at which
+   * point whatever was in effect before is back in effect.
+   */
+  public static class Scope implements AutoCloseable {
+
+    private final Overlay previous;
+
+    private Scope(Overlay overlay) {
+      this.previous = CURRENT.get();
+      CURRENT.set(overlay);
+    }
+
+    public void close() {
+      CURRENT.set(previous);
+    }
+  }
+
+  /**
+   * Put this overlay in effect on the current thread.
+   */
+  public Scope enter() {
+    return new Scope(this);
+  }
+
+  /**
+   * Put the given overlay in effect if it's not null, doing nothing if it is.
+   */
+  public static Scope enter(Overlay overlay) {
+    return overlay != null ? overlay.enter() : null;
+  }
+
+  /**
+   * The overlay in effect on the current thread, if any.
+   */
+  public static Overlay current() {
+    return CURRENT.get();
+  }
+
+  /**
+   * The state of owner to read: the current overlay's copy, if there is one,
+   * or the shared state.
+   */
+  @SuppressWarnings("unchecked")
+  static <S> S read(Object owner, S shared) {
+    var overlay = CURRENT.get();
+    if (overlay == null) return shared;
+    var copy = overlay.copies.get(owner);
+    return copy != null ? (S) copy : shared;
+  }
+
+  /**
+   * The state of owner to change: the current overlay's copy, made from the
+   * shared state if need be, or the shared state if there's no overlay.
+   */
+  @SuppressWarnings("unchecked")
+  static <S> S write(Object owner, S shared, UnaryOperator<S> copier) {
+    var overlay = CURRENT.get();
+    if (overlay == null) return shared;
+    return (S) overlay.copies.computeIfAbsent(owner, k -> copier.apply(shared));
+  }
+
+  /**
+   * Number of things and rooms this overlay has its own copy of.
+   */
+  public int size() {
+    return copies.size();
+  }
+
+  /**
+   * Throw away all the changes, going back to the shared world.
+   */
+  public void clear() {
+    copies.clear();
+  }
+}
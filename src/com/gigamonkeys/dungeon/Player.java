@@ -8,6 +8,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.stream.Stream;
 
 /**
@@ -15,22 +16,54 @@ import java.util.stream.Stream;
  */
 public class Player implements Location, Attack.Target {
 
-  private final Map<String, PlacedThing> inventory = new HashMap<>();
+  private final Contents inventory = new Contents();
+  private final Spelling names = new Spelling();
+  private final NameIndex index = new NameIndex();
+  private final Scheduler scheduler = new Scheduler();
   private Room room;
   private int hitPoints;
 
   public Player(Room start, int hitPoints) {
     this.room = start;
     this.hitPoints = hitPoints;
+    start.entered(this);
   }
 
   //////////////////////////////////////////////////////////////////////////////
   // Location implementation
 
-  public Map<String, PlacedThing> locationMap() {
+  public Contents contents() {
     return inventory;
   }
 
+  public void arrived(Thing thing) {
+    names.add(thing.name());
+    thing.allThings().forEach(t -> names.add(t.name()));
+    index.add(thing);
+  }
+
+  public void departed(Thing thing) {
+    names.remove(thing.name());
+    thing.allThings().forEach(t -> names.remove(t.name()));
+    index.remove(thing);
+  }
+
+  public Optional<Thing> thing(String name) {
+    var named = index.named(name);
+    return switch (named.size()) {
+      case 0 -> Optional.empty();
+      case 1 -> Optional.of(named.get(0));
+      default -> Location.super.thing(name);
+    };
+  }
+
+  /**
+   * The game's clock and what's scheduled to happen as it goes.
+   */
+  public Scheduler scheduler() {
+    return scheduler;
+  }
+
   //////////////////////////////////////////////////////////////////////////////
   // Tracking and describing state changes.
 
@@ -65,24 +98,39 @@ public class Player implements Location, Attack.Target {
     return hitPoints > 0;
   }
 
+  /**
+   * Put the player back in a room with the given hit points, e.g. when
+   * restoring a saved game.
+   */
+  void restore(Room room, int hitPoints) {
+    this.room.exited(this);
+    this.room = room;
+    this.hitPoints = hitPoints;
+    room.entered(this);
+  }
+
   //////////////////////////////////////////////////////////////////////////////
   // Some verbs
 
   public String go(Door door) {
-    room = door.from(room);
+    var next = door.from(room);
+    room.exited(this);
+    room = next;
+    room.entered(this);
     return room.description();
   }
 
   public String drop(Thing t) {
+    var n = t.count();
     room.drop(t);
-    return "You drop the " + t.name() + ".";
+    return "You drop the " + (n == 1 ? t.name() : numberOf(n, t.name())) + ".";
   }
 
   public String inventory() {
     if (things().isEmpty()) {
       return "You've got nothing!";
     } else {
-      var items = things().stream().map(t -> a(t.description())).toList();
+      var items = things().stream().map(Text::a).toList();
       return new Text.Wrapped().add("You have").add(commify(items) + ".").toString();
     }
   }
@@ -103,44 +151,46 @@ public class Player implements Location, Attack.Target {
   //////////////////////////////////////////////////////////////////////////////
   // Command action parsers.
 
-  Action attack(String[] args) throws BadCommandException {
+  Result attack(String[] args) {
     var i = 1;
     var target = args.length == 3
       ? implicit(room::onlyMonster).or("No monster here.")
       : anyThing(arg(args, i++).or("Attack what? And with what?"));
     var with = arg(args, i++).expect("with").or("Don't understand ATTACK with no WITH.");
     var weapon = anyThing(arg(args, i++).or("Attack with what?"));
-    return with.toAction(e -> weapon.toAction(w -> target.toAction(t -> new Action.Attack(t, w))));
+    return with.toAction(e -> weapon.toAction(w -> target.toAction(t -> ok(new Action.Attack(t, w)))));
   }
 
-  Action close(String[] args) throws BadCommandException {
-    return simpleVerb(args, "close", Action.Close::new);
+  Result close(String[] args) {
+    return simpleVerb(args, "close", t -> ok(new Action.Close(t)));
   }
 
-  Action drop(String[] args) throws BadCommandException {
-    return simpleVerb(args, "drop", t -> new Action.Drop(this, t));
+  Result drop(String[] args) {
+    return simpleVerb(args, "drop", t -> ok(new Action.Drop(this, t)));
   }
 
-  Action eat(String[] args) throws BadCommandException {
-    return simpleVerb(args, "eat", Action.Eat::new);
+  Result eat(String[] args) {
+    return simpleVerb(args, "eat", t -> ok(new Action.Eat(t)));
   }
 
-  Action go(String[] args) throws BadCommandException {
+  Result go(String[] args) {
     var name = arg(args, 1).or("Go where?");
-    var dir = name.maybe(Direction::fromString).or(n -> "Don't understand direction " + n + ".");
+    var dir = name
+      .maybe(Direction::fromString)
+      .or(n -> "Don't understand direction " + n + "." + didYouMean(Direction.suggest(n)));
     var door = dir.maybe(room()::door).or(d -> "No door to the " + d + ".");
-    return door.toAction(d -> new Action.Go(this, d));
+    return door.toAction(d -> ok(new Action.Go(this, d)));
   }
 
-  Action look(String[] args) throws BadCommandException {
-    return new Action.Look(this);
+  Result look(String[] args) {
+    return ok(new Action.Look(this));
   }
 
-  Action open(String[] args) throws BadCommandException {
-    return simpleVerb(args, "open", Action.Open::new);
+  Result open(String[] args) {
+    return simpleVerb(args, "open", t -> ok(new Action.Open(t)));
   }
 
-  Action put(String[] args) throws BadCommandException {
+  Result put(String[] args) {
     var thing = anyThing(arg(args, 1).or("Put what? And where?"));
     var placeName = args(args, 2, args.length - 1).or("Where?");
     var location = anyThing(arg(args, args.length - 1).or("Need location."));
@@ -150,44 +200,110 @@ public class Player implements Location, Attack.Target {
         placeName
           .maybe(l::place)
           .or(n -> "Can't put things " + n + " the " + l.name() + ".")
-          .toAction(p -> new Action.Put(t, l, p))
+          .toAction(p -> ok(new Action.Put(t, l, p)))
       )
     );
   }
 
-  Action talk(String[] args) throws BadCommandException {
-    return rest(args, 1).or(args[0] + " what?").toAction(s -> new Action.Talk(s));
+  Result travel(String[] args, Router router) {
+    if (router == null) return failed("You'll have to find your own way around here.");
+    var start = args.length > 1 && args[1].equals("to") ? 2 : 1;
+    var route = rest(args, start)
+      .or("Travel where?")
+      .maybe(p -> router.route(room, p))
+      .or(p -> "Don't know how to get to " + p + " from here.");
+    return route.toAction(r -> r.arrived(room) ? failed("You're already there.") : ok(new Action.Travel(this, r)));
+  }
+
+  Result talk(String[] args) {
+    return rest(args, 1).or(args[0] + " what?").toAction(s -> ok(new Action.Talk(s)));
   }
 
-  Action take(String[] args) throws BadCommandException {
-    return listOfThings(args, 1).or("Take what?").toAction(ts -> new Action.Take(this, ts));
+  Result take(String[] args) {
+    var counts = new HashMap<Thing, Integer>();
+    return listOfThings(args, 1, counts).or("Take what?").toAction(ts -> ok(new Action.Take(this, ts, counts)));
   }
 
   //////////////////////////////////////////////////////////////////////////////
   // Helpers for action parsers
 
-  private Action simpleVerb(String[] args, String verb, ToAction<Thing> factory) throws BadCommandException {
+  private Result simpleVerb(String[] args, String verb, ToAction<Thing> factory) {
     return anyThing(arg(args, 1).or(capitalize(verb) + " what?")).toAction(factory);
   }
 
   private <T> Parse<Thing, String> anyThing(Parse<String, T> parse) {
-    return parse.maybe(n -> thing(n).or(() -> room.thing(n))).or(n -> "No " + n + " here.");
+    return parse
+      .maybe(n -> named(n).or(() -> named(singular(n))))
+      .or(n -> "No " + n + " here." + didYouMean(suggest(n)));
   }
 
-  private Parse<List<Thing>, String[]> listOfThings(String[] args, int start) {
+  private Optional<Thing> named(String name) {
+    return thing(name).or(() -> room.thing(name)).or(() -> abbreviated(name));
+  }
+
+  /**
+   * The thing the player has or can see whose name starts with prefix, if
+   * there's only one.
+   */
+  private Optional<Thing> abbreviated(String prefix) {
+    var mine = index.complete(prefix);
+    var here = room.index().complete(prefix);
+    if (mine.isPresent() && here.isPresent() && !mine.equals(here)) return Optional.empty();
+    return mine.flatMap(this::thing).or(() -> here.flatMap(room::thing));
+  }
+
+  /**
+   * Suggest the name of something the player has or can see.
+   */
+  private Optional<Spelling.Suggestion> suggest(String name) {
+    return Spelling.closer(names.suggest(name), room.names().suggest(name));
+  }
+
+  /**
+   * Things in the room, each possibly preceded by how many of a stack to
+   * take, e.g. "take 20 arrows and sword". The counts are put in counts.
+   */
+  private Parse<List<Thing>, String[]> listOfThings(String[] args, int start, Map<Thing, Integer> counts) {
     var things = new ArrayList<Thing>();
+    var count = 0;
     for (var i = start; i < args.length; i++) {
-      var maybe = room.thing(args[i]);
+      var name = args[i];
+      if (isCount(name)) {
+        count = Integer.parseInt(name);
+        continue;
+      }
+      var maybe = room
+        .thing(name)
+        .or(() -> name.equals("and") ? Optional.empty() : inRoom(name).or(() -> inRoom(singular(name))));
       if (!maybe.isPresent()) {
         if (!args[i].equals("and")) {
-          return bad(args, "No " + args[i] + " here to take.");
+          return bad(args, "No " + args[i] + " here to take." + didYouMean(room.names().suggest(args[i])));
         }
       } else {
         var thing = maybe.get();
+        if (count > 0) {
+          if (count > thing.count()) {
+            var n = thing.count();
+            return bad(args, "There" + isAre(n) + "only " + numberOf(n, thing.name()) + " here.");
+          }
+          counts.put(thing, count);
+          count = 0;
+        }
         things.add(thing);
         thing.allThings().forEach(things::add);
       }
     }
     return things.isEmpty() ? bad(args, "Take what?") : good(things, args);
   }
+
+  /**
+   * The thing in the room with a name or a unique abbreviation of it.
+   */
+  private Optional<Thing> inRoom(String name) {
+    return room.thing(name).or(() -> room.index().complete(name).flatMap(room::thing));
+  }
+
+  private static boolean isCount(String word) {
+    return !word.isEmpty() && word.length() <= 5 && word.charAt(0) != '0' && word.chars().allMatch(Character::isDigit);
+  }
 }
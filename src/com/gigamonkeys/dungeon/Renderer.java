@@ -0,0 +1,151 @@
+package com.gigamonkeys.dungeon;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Writes output straight into bytes as UTF-8, word wrapping text to a width
+ * as it's added, for handing to a channel as a ByteBuffer. Meant to be kept
+ * and reused, e.g. one per server event loop, so once the buffer has grown to
+ * fit the biggest response rendering doesn't make any garbage.
+ *
+ * Words are separated by runs of whitespace and joined with single spaces,
+ * breaking lines before any word that would go past the width, exactly as
+ * Text.Wrapped has always done it.
+ */
+public class Renderer {
+
+  private final int width;
+  private byte[] bytes;
+  private int length = 0;
+
+  // Column in the current paragraph and whether any words have gone in it.
+  private int column = 0;
+  private boolean started = false;
+
+  public Renderer(int width) {
+    this(width, 1024);
+  }
+
+  public Renderer(int width, int capacity) {
+    this.width = width;
+    this.bytes = new byte[capacity];
+  }
+
+  /**
+   * Throw away everything written so far, keeping the buffer.
+   */
+  public Renderer clear() {
+    length = 0;
+    column = 0;
+    started = false;
+    return this;
+  }
+
+  /**
+   * Write text as is, e.g. something already formatted.
+   */
+  public Renderer text(CharSequence s) {
+    encode(s, 0, s.length());
+    return this;
+  }
+
+  /**
+   * Start a new paragraph of words.
+   */
+  public Renderer paragraph() {
+    column = 0;
+    started = false;
+    return this;
+  }
+
+  /**
+   * Add the words of s to the current paragraph.
+   */
+  public Renderer words(CharSequence s) {
+    var n = s.length();
+    var i = 0;
+    while (true) {
+      while (i < n && isSpace(s.charAt(i))) i++;
+      if (i == n) return this;
+      var start = i;
+      while (i < n && !isSpace(s.charAt(i))) i++;
+      word(s, start, i);
+    }
+  }
+
+  /**
+   * What's been written, ready to be read. Shares the renderer's bytes so it's
+   * only good until the next change.
+   */
+  public ByteBuffer bytes() {
+    return ByteBuffer.wrap(bytes, 0, length);
+  }
+
+  public String toString() {
+    return new String(bytes, 0, length, StandardCharsets.UTF_8);
+  }
+
+  private void word(CharSequence s, int start, int end) {
+    var length = end - start;
+    if (column + 1 + length > width) {
+      // Never start a paragraph with a blank line.
+      if (started) put('\n');
+      column = 0;
+    }
+    if (column > 0) {
+      put(' ');
+      column++;
+    }
+    encode(s, start, end);
+    column += length;
+    started = true;
+  }
+
+  /**
+   * The characters that count as whitespace in a regex \s.
+   */
+  private static boolean isSpace(char c) {
+    return c == ' ' || c == '\n' || c == '\t' || c == '\r' || c == '\f' || c == '\u000B';
+  }
+
+  private void encode(CharSequence s, int start, int end) {
+    ensure((end - start) * 3);
+    var b = bytes;
+    var n = length;
+    for (var i = start; i < end; i++) {
+      var c = s.charAt(i);
+      if (c < 0x80) {
+        b[n++] = (byte) c;
+      } else if (c < 0x800) {
+        b[n++] = (byte) (0xC0 | (c >> 6));
+        b[n++] = (byte) (0x80 | (c & 0x3F));
+      } else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(s.charAt(i + 1))) {
+        // Four bytes for two chars, so still within the three per char.
+        var cp = Character.toCodePoint(c, s.charAt(++i));
+        b[n++] = (byte) (0xF0 | (cp >> 18));
+        b[n++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+        b[n++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+        b[n++] = (byte) (0x80 | (cp & 0x3F));
+      } else if (Character.isSurrogate(c)) {
+        // Same as String.getBytes for half a surrogate pair.
+        b[n++] = '?';
+      } else {
+        b[n++] = (byte) (0xE0 | (c >> 12));
+        b[n++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+        b[n++] = (byte) (0x80 | (c & 0x3F));
+      }
+    }
+    length = n;
+  }
+
+  private void put(char c) {
+    ensure(1);
+    bytes[length++] = (byte) c;
+  }
+
+  private void ensure(int n) {
+    if (bytes.length - length < n) bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + n));
+  }
+}
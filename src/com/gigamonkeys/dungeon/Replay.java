@@ -0,0 +1,245 @@
+package com.gigamonkeys.dungeon;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Headless regression runner. Replays scripts of commands against fresh
+ * worlds in parallel, comparing each transcript against its golden file as
+ * the output is produced and stopping a script at the first line that
+ * differs.
+ *
+ * Arguments are either script:golden pairs or directories, in which every
+ * foo.golden is paired with the script foo.txt. With no arguments, replays
+ * run.txt against golden.txt and everything in the scripts directory.
+ *
+ * Scripts play in the Maze unless their first line names another world the
+ * way a journal does, e.g. "# generate 3x3 18". Each script saves and
+ * restores its game in a file of its own.
+ */
+public class Replay {
+
+  private static final int CONTEXT = 3;
+
+  public static record Script(Path script, Path golden) {}
+
+  /**
+   * Where a script's output first differed from its golden file. Command 0 is
+   * the initial room description; command n is the nth command of the script.
+   */
+  public static record Divergence(Script script, int command, int line, String diff) {}
+
+  /**
+   * Replay one script, returning where it diverged, if it did.
+   */
+  public static Optional<Divergence> replay(Script script) {
+    try (var reader = Files.newBufferedReader(script.golden())) {
+      var text = Files.readString(script.script());
+      var world = "maze";
+      if (text.startsWith("#")) {
+        var end = text.indexOf('\n');
+        world = text.substring(1, end != -1 ? end : text.length()).strip();
+        text = end != -1 ? text.substring(end + 1) : "";
+      }
+      var commands = new CountingReader(text);
+      var golden = new GoldenStream(reader);
+      var dungeon = new Dungeon(new Player(world(world), 20));
+      var saves = Files.createTempDirectory("replay");
+      dungeon.setSaveFile(saves.resolve("dungeon.save"));
+      try {
+        dungeon.loop(commands, new PrintStream(golden, false, StandardCharsets.UTF_8), true);
+        golden.finish();
+        return Optional.empty();
+      } catch (Mismatch m) {
+        return Optional.of(new Divergence(script, commands.count(), m.line, m.diff));
+      } finally {
+        Files.deleteIfExists(saves.resolve("dungeon.save"));
+        Files.delete(saves);
+      }
+    } catch (IOException ioe) {
+      return Optional.of(new Divergence(script, 0, 0, "Yikes. Problem reading script: " + ioe));
+    } catch (IllegalArgumentException e) {
+      return Optional.of(new Divergence(script, 0, 0, "Yikes. " + e.getMessage()));
+    }
+  }
+
+  /**
+   * A fresh copy of the named world: "maze" or "generate WIDTHxHEIGHT SEED".
+   */
+  private static Room world(String world) {
+    var parts = world.split("\\s+");
+    if (parts.length == 1 && parts[0].equals("maze")) {
+      return new Maze().build();
+    } else if (parts.length == 3 && parts[0].equals("generate")) {
+      return new Generator(Generator.Config.parse(parts[1], Long.parseLong(parts[2]))).build();
+    } else {
+      throw new IllegalArgumentException("Don't know the world " + world);
+    }
+  }
+
+  public static List<Divergence> replayAll(List<Script> scripts) {
+    return scripts.parallelStream().map(Replay::replay).flatMap(Optional::stream).toList();
+  }
+
+  /**
+   * Find the scripts named by the command line arguments.
+   */
+  public static List<Script> scripts(String[] args) throws IOException {
+    var scripts = new ArrayList<Script>();
+    var names = args;
+    if (args.length == 0) {
+      scripts.add(new Script(Path.of("run.txt"), Path.of("golden.txt")));
+      names = Files.isDirectory(Path.of("scripts")) ? new String[] { "scripts" } : new String[0];
+    }
+    for (var arg : names) {
+      var path = Path.of(arg);
+      if (Files.isDirectory(path)) {
+        try (var files = Files.list(path)) {
+          files
+            .filter(p -> p.getFileName().toString().endsWith(".golden"))
+            .sorted()
+            .map(g -> new Script(g.resolveSibling(g.getFileName().toString().replaceAll("\\.golden$", ".txt")), g))
+            .forEach(scripts::add);
+        }
+      } else {
+        var parts = arg.split(":", 2);
+        if (parts.length != 2) {
+          throw new IllegalArgumentException("Expected script:golden but got " + arg);
+        }
+        scripts.add(new Script(Path.of(parts[0]), Path.of(parts[1])));
+      }
+    }
+    return scripts;
+  }
+
+  /**
+   * Reader over the script that counts the commands handed out.
+   */
+  private static class CountingReader extends BufferedReader {
+
+    private int count = 0;
+
+    CountingReader(String text) {
+      super(new StringReader(text));
+    }
+
+    public String readLine() throws IOException {
+      var line = super.readLine();
+      if (line != null) count++;
+      return line;
+    }
+
+    int count() {
+      return count;
+    }
+  }
+
+  /**
+   * Thrown out of the game loop at the first differing line.
+   */
+  @SuppressWarnings("serial")
+  private static class Mismatch extends RuntimeException {
+
+    final int line;
+    final String diff;
+
+    Mismatch(int line, String diff) {
+      super(null, null, false, false);
+      this.line = line;
+      this.diff = diff;
+    }
+  }
+
+  /**
+   * Output stream that checks each complete line against the next line of the
+   * golden file as it is written.
+   */
+  private static class GoldenStream extends OutputStream {
+
+    private final BufferedReader golden;
+    private final ByteArrayOutputStream current = new ByteArrayOutputStream();
+    private final ArrayDeque<String> context = new ArrayDeque<>();
+    private int line = 0;
+
+    GoldenStream(BufferedReader golden) {
+      this.golden = golden;
+    }
+
+    public void write(int b) throws IOException {
+      if (b == '\n') {
+        check(current.toString(StandardCharsets.UTF_8));
+        current.reset();
+      } else {
+        current.write(b);
+      }
+    }
+
+    /**
+     * Check any trailing partial line and that the golden file has nothing
+     * left over.
+     */
+    void finish() throws IOException {
+      if (current.size() > 0) {
+        check(current.toString(StandardCharsets.UTF_8));
+      }
+      var extra = golden.readLine();
+      if (extra != null) {
+        throw mismatch(extra, null);
+      }
+    }
+
+    private void check(String actual) throws IOException {
+      line++;
+      var expected = golden.readLine();
+      if (!actual.equals(expected)) {
+        throw mismatch(expected, actual);
+      }
+      context.add(actual);
+      if (context.size() > CONTEXT) context.remove();
+    }
+
+    private Mismatch mismatch(String expected, String actual) {
+      var diff = new StringBuilder();
+      context.forEach(c -> diff.append("  ").append(c).append("\n"));
+      diff.append("- ").append(expected != null ? expected : "<end of golden file>").append("\n");
+      diff.append("+ ").append(actual != null ? actual : "<end of output>").append("\n");
+      return new Mismatch(line, diff.toString());
+    }
+  }
+
+  public static void main(String[] args) {
+    try {
+      var scripts = scripts(args);
+      var start = System.nanoTime();
+      var divergences = replayAll(scripts);
+      var millis = (System.nanoTime() - start) / 1_000_000;
+
+      for (var d : divergences) {
+        System.out.println(
+          "Bad: " + d.script().script() + " diverged at command " + d.command() + " (line " + d.line() + ")"
+        );
+        System.out.print(d.diff());
+      }
+      var good = scripts.size() - divergences.size();
+      System.out.println(
+        (divergences.isEmpty() ? "Good: " : "") + good + " of " + scripts.size() + " scripts match (" + millis + " ms)"
+      );
+      System.out.println(Room.descriptionStats());
+      System.exit(divergences.isEmpty() ? 0 : 1);
+    } catch (IOException | IllegalArgumentException e) {
+      System.out.println("Yikes. " + e.getMessage());
+      System.exit(2);
+    }
+  }
+}
@@ -1,13 +1,11 @@
 package com.gigamonkeys.dungeon;
 
 import static com.gigamonkeys.dungeon.Text.*;
-
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Predicate;
 import java.util.stream.Stream;
 
@@ -18,39 +16,330 @@ import java.util.stream.Stream;
  */
 public class Room implements Location {
 
+  // How often descriptions come from the cache, across all rooms.
+  private static final LongAdder descriptionHits = new LongAdder();
+  private static final LongAdder descriptionMisses = new LongAdder();
+
   private final String description;
-  private final Map<Direction, Door> doors = new HashMap<Direction, Door>();
-  private final Map<String, PlacedThing> things = new HashMap<>();
+
+  // Indexed by Direction ordinal.
+  private final Door[] doors = new Door[4];
+
+  // Null until the room is connected to another or is part of a Graph.
+  // Guarded by World.class.
+  private World world = null;
+
+  // What's in the room, which can be copied into an Overlay.
+  private final State state = new State(null);
+
+  private static final class State {
+
+    // Null until something is put in the room.
+    Contents things;
+
+    // Built the first time they're needed; most rooms in a big world never are.
+    volatile Spelling names = null;
+    volatile NameIndex index = null;
+    volatile Subscribers subscribers = null;
+
+    // Bumped whenever anything that shows up in the description changes.
+    long version = 0;
+    volatile Description description = null;
+
+    State(Contents things) {
+      this.things = things;
+    }
+
+    State copy() {
+      var copy = new State(things != null ? things.copy() : null);
+      copy.version = version;
+      copy.description = description;
+      return copy;
+    }
+  }
+
+  /**
+   * The rooms known to be connected to each other by doors, with a count of
+   * the doors added to them so anything built from the doors, e.g. a Graph,
+   * can tell it's out of date without being thrown off by doors added in
+   * some other world. Rooms start out in no world and worlds are merged as
+   * doors connect them; each world points at the one it was merged into, and
+   * the one at the end of the chain speaks for all of them.
+   */
+  static final class World {
+
+    private World parent = this;
+    private long doorChanges = 0;
+
+    /**
+     * Number of doors added to the world's rooms so far.
+     */
+    long doorChanges() {
+      synchronized (World.class) {
+        return doorChanges;
+      }
+    }
+  }
+
+  /**
+   * A description of the room as of a version of its state.
+   */
+  private static record Description(long version, String text) {}
+
+  public static record DescriptionStats(long hits, long misses) {
+    public double hitRate() {
+      return hits + misses == 0 ? 1 : (double) hits / (hits + misses);
+    }
+
+    public String toString() {
+      return String.format("description cache hit rate %.2f%% (%,d hits, %,d misses)", hitRate() * 100, hits, misses);
+    }
+  }
 
   public Room(String description) {
     this.description = description;
   }
 
+  private State state() {
+    return Overlay.read(this, state);
+  }
+
+  private State writable() {
+    return Overlay.write(this, state, State::copy);
+  }
+
   //////////////////////////////////////////////////////////////////////////////
   // Location implementation
 
-  public Map<String, PlacedThing> locationMap() {
-    return things;
+  public Contents contents() {
+    var things = state().things;
+    return things != null ? things : Contents.EMPTY;
+  }
+
+  public Contents writableContents() {
+    var s = writable();
+    if (s.things == null) s.things = new Contents();
+    return s.things;
+  }
+
+  public void arrived(Thing thing) {
+    var s = indexesToUpdate();
+    if (s == null) return;
+    var names = s.names;
+    if (names != null) {
+      names.add(thing.name());
+      thing.allThings().forEach(t -> names.add(t.name()));
+    }
+    if (s.index != null) s.index.add(thing);
+    if (s.subscribers != null) s.subscribers.add(thing);
+  }
+
+  /**
+   * Something in the room has changed so the description has to be made
+   * again.
+   */
+  public void changed() {
+    writable().version++;
+  }
+
+  public void departed(Thing thing) {
+    var s = indexesToUpdate();
+    if (s == null) return;
+    var names = s.names;
+    if (names != null) {
+      names.remove(thing.name());
+      thing.allThings().forEach(t -> names.remove(t.name()));
+    }
+    if (s.index != null) s.index.remove(thing);
+    if (s.subscribers != null) s.subscribers.remove(thing);
+  }
+
+  /**
+   * The state whose indexes need to be kept up to date, if any have been
+   * built. A shared room is first copied into the overlay and its copy's
+   * indexes are rebuilt when next needed.
+   */
+  private State indexesToUpdate() {
+    var s = state();
+    return s.names != null || s.index != null || s.subscribers != null ? writable() : null;
+  }
+
+  /**
+   * Get the named thing from anywhere in the room without searching every
+   * container in it.
+   */
+  public Optional<Thing> thing(String name) {
+    var named = index().named(name);
+    return switch (named.size()) {
+      case 0 -> Optional.empty();
+      case 1 -> Optional.of(named.get(0));
+      // Let the search decide which one as it always has.
+      default -> Location.super.thing(name);
+    };
+  }
+
+  /**
+   * Index of everything in the room by name.
+   */
+  public NameIndex index() {
+    var s = state();
+    if (s.index == null) {
+      var index = new NameIndex();
+      things().forEach(index::add);
+      s.index = index;
+    }
+    return s.index;
   }
 
   //
   //////////////////////////////////////////////////////////////////////////////
 
+  /**
+   * The things in the room that react to the kind of the given action.
+   */
+  public List<Thing> subscribers(Action action) {
+    var s = state();
+    if (s.subscribers == null) {
+      var subscribers = new Subscribers();
+      things().forEach(subscribers::add);
+      s.subscribers = subscribers;
+    }
+    return s.subscribers.to(action.getClass());
+  }
+
   void connect(String doorDescription, Room other, Direction d) {
-    if (doors.containsKey(d)) {
+    link(doorDescription, other, d);
+    synchronized (World.class) {
+      join(other).doorChanges++;
+    }
+  }
+
+  /**
+   * Add a door between this room and other without joining their worlds, for
+   * building a lot of rooms at once and then making them one world with
+   * joinAll rather than merging worlds one door at a time.
+   */
+  void link(String doorDescription, Room other, Direction d) {
+    if (doors[d.ordinal()] != null) {
       throw new RuntimeException("Already have a door in direction " + d);
     }
-    if (other.doors.containsKey(d.opposite())) {
+    if (other.doors[d.opposite().ordinal()] != null) {
       throw new RuntimeException("Other room already has a door in direction " + d.opposite());
     }
 
-    var door = new Door(doorDescription, this, other);
+    var door = new Door.Simple(doorDescription, this, other);
+
+    doors[d.ordinal()] = door;
+    other.doors[d.opposite().ordinal()] = door;
+  }
+
+  /**
+   * Make rooms that aren't in any world yet, e.g. ones just linked, into one
+   * world with the given number of doors.
+   */
+  static void joinAll(Room[] rooms, long doors) {
+    var world = new World();
+    synchronized (World.class) {
+      world.doorChanges = doors;
+      for (var room : rooms) {
+        if (room.world != null) throw new IllegalStateException("Room already in a world");
+        room.world = world;
+      }
+    }
+  }
+
+  /**
+   * Add a door without checking the other side. For worlds loaded from
+   * somewhere else where each room sets up its own side of a door. That's
+   * filling in a door that was always there, not a new one, so it doesn't
+   * count as a change. The room at the other side may not even be loaded yet
+   * so the rooms aren't joined into one world until something makes a Graph
+   * of them.
+   */
+  void addDoor(Direction d, Door door) {
+    doors[d.ordinal()] = door;
+  }
+
+  /**
+   * The world the room is part of.
+   */
+  World world() {
+    synchronized (World.class) {
+      return root();
+    }
+  }
+
+  /**
+   * Make this room, and the rest of its world, part of other's world,
+   * returning the combined world. Merging worlds doesn't add any doors so
+   * other's world keeps its count.
+   */
+  World join(Room other) {
+    synchronized (World.class) {
+      var theirs = other.root();
+      if (world == null) {
+        world = theirs;
+      } else {
+        var mine = root();
+        if (mine != theirs) mine.parent = theirs;
+      }
+      return theirs;
+    }
+  }
+
+  private World root() {
+    if (world == null) world = new World();
+    var w = world;
+    while (w.parent != w) {
+      w.parent = w.parent.parent;
+      w = w.parent;
+    }
+    world = w;
+    return w;
+  }
+
+  /**
+   * Called when a player comes into the room, including by starting in it.
+   */
+  void entered(Player player) {}
+
+  /**
+   * Called when a player leaves the room.
+   */
+  void exited(Player player) {}
 
-    doors.put(d, door);
-    other.doors.put(d.opposite(), door);
+  /**
+   * The description the room was created with, e.g. "a storeroom".
+   */
+  String baseDescription() {
+    return description;
   }
 
+  /**
+   * The full description of the room and everything in it. Made once and then
+   * reused until something in the room changes.
+   */
   public String description() {
+    var s = state();
+    var cached = s.description;
+    if (cached != null && cached.version() == s.version) {
+      descriptionHits.increment();
+      return cached.text();
+    }
+    descriptionMisses.increment();
+    var text = describe();
+    s.description = new Description(s.version, text);
+    return text;
+  }
+
+  public static DescriptionStats descriptionStats() {
+    return new DescriptionStats(descriptionHits.sum(), descriptionMisses.sum());
+  }
+
+  /**
+   * The description built from scratch, bypassing the cache.
+   */
+  String describe() {
     return new Text.Wrapped()
       .add("You are in " + description + ".")
       .add(describeThings(t -> !t.isMonster()))
@@ -59,8 +348,23 @@ public class Room implements Location {
       .toString();
   }
 
+  /**
+   * The names of everything in the room, for spelling suggestions.
+   */
+  public Spelling names() {
+    var s = state();
+    if (s.names == null) {
+      // Fill it in before publishing it since a shared room can be read by
+      // many games at once.
+      var names = new Spelling();
+      allThings().forEach(t -> names.add(t.name()));
+      s.names = names;
+    }
+    return s.names;
+  }
+
   public Optional<Door> door(Direction d) {
-    return Optional.ofNullable(doors.get(d));
+    return Optional.ofNullable(doors[d.ordinal()]);
   }
 
   public void drop(Thing t) {
@@ -78,20 +382,24 @@ public class Room implements Location {
   private Stream<String> describeThings(Predicate<Thing> p) {
     var desc = new ArrayList<String>();
 
-    var byPlace = groupByPlace();
+    groupByPlace()
+      .forEach((place, things) -> {
+        var descriptions = new ArrayList<String>(things.size());
+        var count = 0;
+        for (var t : things) {
+          if (p.test(t)) {
+            descriptions.add(a(t));
+            count += t.count();
+          }
+        }
+        if (!descriptions.isEmpty()) {
+          desc.add(capitalize(place) + isAre(count) + commify(descriptions) + ".");
+        }
+      });
 
-    byPlace
-      .keySet()
-      .stream()
-      .flatMap(place -> {
-        var things = byPlace.getOrDefault(place, List.of()).stream().filter(p).map(t -> a(t.description())).toList();
-        return things.isEmpty()
-          ? Stream.empty()
-          : Stream.of(capitalize(place) + isAre(things.size()) + commify(things) + ".");
-      })
-      .forEach(desc::add);
-
-    things().stream().filter(p).map(Thing::describeThings).forEach(desc::add);
+    for (var pt : placedThings()) {
+      if (p.test(pt.thing())) desc.add(pt.thing().describeThings());
+    }
 
     return desc.stream();
   }
@@ -99,8 +407,8 @@ public class Room implements Location {
   private String describeDoors() {
     var ds = Arrays
       .stream(Direction.class.getEnumConstants())
-      .filter(doors::containsKey)
-      .map(d -> a(doors.get(d).description()) + " to the " + d.toString().toLowerCase())
+      .filter(d -> doors[d.ordinal()] != null)
+      .map(d -> a(doors[d.ordinal()].description()) + " to the " + d.toString().toLowerCase())
       .toList();
 
     return "There is " + commify(ds) + ".";
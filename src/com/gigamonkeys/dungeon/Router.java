@@ -0,0 +1,278 @@
+package com.gigamonkeys.dungeon;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.IntPredicate;
+import java.util.regex.Pattern;
+
+/**
+ * Finds routes through a world for the travel command. A place is a kind of
+ * room, named by words from its description ("the kitchen", "a library"), or
+ * a landmark, i.e. the name of something in a room that stays put ("the
+ * altar"). Routes go to the nearest matching room. The name of something
+ * that can be moved also works but it has to be looked for each time.
+ *
+ * Routes come from next-hop tables: one breadth-first search out from every
+ * room matching a place at once gives the direction to go from every room in
+ * the world, so once a place's table has been built the way there from
+ * anywhere is just a matter of looking up the next step in the table. The
+ * tables for the most recently used places are kept.
+ *
+ * The tables are built over a Graph of the world which is rebuilt, dropping
+ * all the tables, whenever a door has been added to the world since it was
+ * built. Doors added to other worlds, and rooms of a world file being loaded,
+ * don't count.
+ *
+ * Thread safe so one router can be shared by all the games in a Template.
+ */
+public class Router {
+
+  public static final int MAX_TABLES = 32;
+
+  // Entries in a next-hop table other than a Direction ordinal.
+  private static final byte HERE = -1;
+  private static final byte UNREACHABLE = -2;
+
+  private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+  private final Room start;
+  private final int maxTables;
+
+  // Guarded by this.
+  private Graph graph;
+  private final Map<Object, byte[]> tables;
+  private List<Place> places = null;
+  private long hits = 0;
+  private long misses = 0;
+
+  public static record Stats(long hits, long misses, int tables) {
+    public String toString() {
+      var total = hits + misses;
+      return String.format(
+        "%,d tables cached; hit rate %.2f%% (%,d misses)",
+        tables,
+        total == 0 ? 100.0 : hits * 100.0 / total,
+        misses
+      );
+    }
+  }
+
+  public Router(Graph graph) {
+    this(graph, MAX_TABLES);
+  }
+
+  public Router(Graph graph, int maxTables) {
+    this.start = graph.room(0);
+    this.maxTables = maxTables;
+    this.graph = graph;
+    // In access order, so the eldest entry is the least recently used table.
+    this.tables =
+      new LinkedHashMap<>(16, 0.75f, true) {
+        protected boolean removeEldestEntry(Map.Entry<Object, byte[]> eldest) {
+          return size() > Router.this.maxTables;
+        }
+      };
+  }
+
+  /**
+   * The way to a place from anywhere in the world.
+   */
+  public static record Route(Graph graph, byte[] table) {
+    /**
+     * Which way to go from room, or null if we're there or can't get there
+     * from room.
+     */
+    public Direction next(Room room) {
+      var id = graph.id(room);
+      return id != Graph.NONE && table[id] >= 0 ? Direction.values()[table[id]] : null;
+    }
+
+    public boolean arrived(Room room) {
+      var id = graph.id(room);
+      return id != Graph.NONE && table[id] == HERE;
+    }
+
+    /**
+     * All the directions to go from room, in order.
+     */
+    public List<Direction> from(Room room) {
+      var route = new ArrayList<Direction>();
+      var directions = Direction.values();
+      var r = graph.id(room);
+      if (r == Graph.NONE || table[r] == UNREACHABLE) return route;
+      while (table[r] != HERE) {
+        var d = directions[table[r]];
+        route.add(d);
+        r = graph.neighbour(r, d);
+      }
+      return route;
+    }
+  }
+
+  /**
+   * The way to a place from a room. Empty if there's no such place or no way
+   * to get there from the room.
+   */
+  public Optional<Route> route(Room from, String place) {
+    var name = normalize(place);
+    var g = graph();
+    var id = g.id(from);
+    if (id == Graph.NONE || name.isEmpty()) return Optional.empty();
+
+    byte[] table;
+    if (isPlace(g, name)) {
+      table = table(g, name);
+    } else {
+      // Something that moves around so we have to look for it.
+      var landmark = nearest(g, id, r -> g.room(r).thing(name).isPresent());
+      if (landmark == Graph.NONE) return Optional.empty();
+      table = table(g, landmark);
+    }
+    return table[id] != UNREACHABLE ? Optional.of(new Route(g, table)) : Optional.empty();
+  }
+
+  public synchronized Stats stats() {
+    return new Stats(hits, misses, tables.size());
+  }
+
+  /**
+   * The current graph, rebuilt if the doors have changed since it was built.
+   */
+  private synchronized Graph graph() {
+    if (!graph.current()) {
+      graph = Graph.of(start);
+      tables.clear();
+      places = null;
+    }
+    return graph;
+  }
+
+  private synchronized boolean isPlace(Graph g, String name) {
+    var words = List.of(name.split(" "));
+    return places(g).stream().anyMatch(p -> p.words().containsAll(words));
+  }
+
+  /**
+   * The rooms that match all the words of name.
+   */
+  private synchronized int[] rooms(Graph g, String name) {
+    var words = List.of(name.split(" "));
+    return places(g)
+      .stream()
+      .filter(p -> p.words().containsAll(words))
+      .flatMap(p -> p.rooms().stream())
+      .mapToInt(Integer::intValue)
+      .distinct()
+      .toArray();
+  }
+
+  /**
+   * Rooms known by the same words: all the rooms with the same description or
+   * all the rooms with a landmark of the same name.
+   */
+  private static record Place(Set<String> words, List<Integer> rooms) {}
+
+  /**
+   * The rooms grouped by description and by landmark. Worlds tend to have
+   * many rooms with the same description and the same furniture so there are
+   * far fewer places than rooms.
+   */
+  private synchronized List<Place> places(Graph g) {
+    if (places != null && g == graph) return places;
+    var byDescription = new HashMap<String, List<Integer>>();
+    var byLandmark = new HashMap<String, List<Integer>>();
+    for (var r = 0; r < g.size(); r++) {
+      var room = g.room(r);
+      var id = r;
+      byDescription.computeIfAbsent(room.baseDescription(), d -> new ArrayList<>()).add(id);
+      room
+        .things()
+        .stream()
+        .filter(t -> !t.isPortable() && !t.isMonster())
+        .forEach(t -> byLandmark.computeIfAbsent(t.name(), n -> new ArrayList<>()).add(id));
+    }
+    var list = new ArrayList<Place>();
+    byDescription.forEach((d, rooms) -> {
+      list.add(new Place(Set.copyOf(Arrays.asList(WHITESPACE.split(d.toLowerCase()))), rooms));
+    });
+    byLandmark.forEach((n, rooms) -> list.add(new Place(Set.of(n), rooms)));
+    if (g == graph) places = list;
+    return list;
+  }
+
+  private synchronized byte[] table(Graph g, Object destination) {
+    var table = tables.get(destination);
+    if (table != null && g == graph) {
+      hits++;
+    } else {
+      misses++;
+      table = nextHops(g, destination instanceof String name ? rooms(g, name) : new int[] { (Integer) destination });
+      if (g == graph) tables.put(destination, table);
+    }
+    return table;
+  }
+
+  /**
+   * Breadth-first search out from the targets all at once, recording for each
+   * room reached the direction back toward the nearest target.
+   */
+  private static byte[] nextHops(Graph g, int[] targets) {
+    var table = new byte[g.size()];
+    Arrays.fill(table, UNREACHABLE);
+    var queue = new int[g.size()];
+    var tail = 0;
+    for (var t : targets) {
+      table[t] = HERE;
+      queue[tail++] = t;
+    }
+    for (var head = 0; head < tail; head++) {
+      var r = queue[head];
+      for (var d : Direction.values()) {
+        var n = g.neighbour(r, d);
+        if (n != Graph.NONE && table[n] == UNREACHABLE) {
+          table[n] = (byte) d.opposite().ordinal();
+          queue[tail++] = n;
+        }
+      }
+    }
+    return table;
+  }
+
+  /**
+   * The nearest room to from that matches, or NONE. Only searches as far out
+   * as it needs to.
+   */
+  private static int nearest(Graph g, int from, IntPredicate matches) {
+    var seen = new boolean[g.size()];
+    var queue = new int[g.size()];
+    var tail = 0;
+    seen[from] = true;
+    queue[tail++] = from;
+    for (var head = 0; head < tail; head++) {
+      var r = queue[head];
+      if (matches.test(r)) return r;
+      for (var d : Direction.values()) {
+        var n = g.neighbour(r, d);
+        if (n != Graph.NONE && !seen[n]) {
+          seen[n] = true;
+          queue[tail++] = n;
+        }
+      }
+    }
+    return Graph.NONE;
+  }
+
+  private static String normalize(String place) {
+    var s = String.join(" ", WHITESPACE.split(place.toLowerCase().strip()));
+    for (var article : new String[] { "the ", "an ", "a " }) {
+      if (s.startsWith(article)) return s.substring(article.length());
+    }
+    return s;
+  }
+}
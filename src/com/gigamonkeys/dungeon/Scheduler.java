@@ -0,0 +1,206 @@
+package com.gigamonkeys.dungeon;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A game's clock and the actions waiting for it: a monster that attacks in
+ * three turns, one that gets its strength back, one that wanders from room
+ * to room. The clock goes forward one tick per turn, i.e. every command that
+ * counts as a turn, and each tick hands back the actions due then.
+ *
+ * Pending actions are kept in a hierarchical timing wheel: LEVELS wheels of
+ * SLOTS slots each, where level 0 has a slot per tick for the current
+ * SLOTS ticks, level 1 a slot per SLOTS ticks for the current SLOTS^2 ticks,
+ * and so on, with anything further off than that in an overflow list.
+ * Scheduling puts an action in the lowest level whose span it falls in and
+ * each time the clock crosses a slot boundary of a higher level the actions
+ * in that slot move down a level, so scheduling, cancelling, and ticking
+ * cost the same however many actions are pending. A tick with nothing due
+ * looks at one empty slot, so rooms with nothing going on cost nothing.
+ */
+public class Scheduler {
+
+  private static final int BITS = 6;
+  private static final int SLOTS = 1 << BITS;
+  private static final int MASK = SLOTS - 1;
+  private static final int LEVELS = 4;
+
+  // Each slot is a circular list with a sentinel so adding and removing
+  // don't need to care whether the list is empty. Level LEVELS is the overflow.
+  private final Event[][] wheels = new Event[LEVELS + 1][];
+
+  private long now = 0;
+  private long scheduled = 0;
+  private int size = 0;
+
+  /**
+   * An action due at a tick, in a room or, if where is null, wherever the
+   * player is. Ordered by when it was scheduled among actions due at the same
+   * tick.
+   */
+  public static final class Event {
+
+    private final long due;
+    private final long order;
+    private final Room where;
+    private final Action action;
+
+    private Event prev = this;
+    private Event next = this;
+
+    private Event(long due, long order, Room where, Action action) {
+      this.due = due;
+      this.order = order;
+      this.where = where;
+      this.action = action;
+    }
+
+    public long due() {
+      return due;
+    }
+
+    public Room where() {
+      return where;
+    }
+
+    public Action action() {
+      return action;
+    }
+
+    /**
+     * Is it still waiting to happen?
+     */
+    public boolean pending() {
+      return next != this;
+    }
+  }
+
+  public Scheduler() {
+    for (var level = 0; level <= LEVELS; level++) {
+      var slots = level < LEVELS ? SLOTS : 1;
+      wheels[level] = new Event[slots];
+      for (var s = 0; s < slots; s++) wheels[level][s] = new Event(0, 0, null, null);
+    }
+  }
+
+  /**
+   * The current tick.
+   */
+  public long now() {
+    return now;
+  }
+
+  /**
+   * Number of actions waiting.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Have an action happen in the given number of turns, at least one.
+   */
+  public Event schedule(int turns, Room where, Action action) {
+    if (turns < 1) throw new IllegalArgumentException("Can only schedule for a later turn: " + turns);
+    var event = new Event(now + turns, scheduled++, where, action);
+    insert(event);
+    size++;
+    return event;
+  }
+
+  /**
+   * Keep an action from happening. Does nothing if it already has.
+   */
+  public void cancel(Event event) {
+    if (event.pending()) {
+      unlink(event);
+      size--;
+    }
+  }
+
+  /**
+   * Forget everything pending, e.g. when restoring a saved game.
+   */
+  public void clear() {
+    for (var wheel : wheels) {
+      for (var sentinel : wheel) {
+        for (var e = sentinel.next; e != sentinel;) {
+          var next = e.next;
+          e.prev = e.next = e;
+          e = next;
+        }
+        sentinel.prev = sentinel.next = sentinel;
+      }
+    }
+    size = 0;
+  }
+
+  /**
+   * Move the clock forward a tick and return what's due, in the order it was
+   * scheduled.
+   */
+  public List<Event> tick() {
+    now++;
+    if ((now & MASK) == 0) cascade();
+    var sentinel = wheels[0][(int) (now & MASK)];
+    if (sentinel.next == sentinel) return List.of();
+    var due = new ArrayList<Event>();
+    for (var e = sentinel.next; e != sentinel;) {
+      var next = e.next;
+      e.prev = e.next = e;
+      due.add(e);
+      e = next;
+    }
+    sentinel.prev = sentinel.next = sentinel;
+    size -= due.size();
+    // Actions moved down from different levels can be out of order.
+    due.sort(Comparator.comparingLong(e -> e.order));
+    return due;
+  }
+
+  /**
+   * The clock has crossed the boundary of at least one level 1 slot so move
+   * the actions in the slots it has moved into down a level, starting with
+   * the highest level crossed so they can keep moving down.
+   */
+  private void cascade() {
+    var top = 1;
+    while (top < LEVELS && ((now >>> (BITS * top)) & MASK) == 0) top++;
+    for (var level = top; level >= 1; level--) {
+      var sentinel = level < LEVELS ? wheels[level][slot(now, level)] : wheels[LEVELS][0];
+      var e = sentinel.next;
+      sentinel.prev = sentinel.next = sentinel;
+      while (e != sentinel) {
+        var next = e.next;
+        insert(e);
+        e = next;
+      }
+    }
+  }
+
+  /**
+   * Put an event in the lowest level whose current span includes when it's
+   * due, i.e. where it and now only differ in that level's slot bits.
+   */
+  private void insert(Event event) {
+    var level = 0;
+    while (level < LEVELS && (event.due >>> (BITS * (level + 1))) != (now >>> (BITS * (level + 1)))) level++;
+    var sentinel = level < LEVELS ? wheels[level][slot(event.due, level)] : wheels[LEVELS][0];
+    event.prev = sentinel.prev;
+    event.next = sentinel;
+    sentinel.prev.next = event;
+    sentinel.prev = event;
+  }
+
+  private static int slot(long tick, int level) {
+    return (int) ((tick >>> (BITS * level)) & MASK);
+  }
+
+  private static void unlink(Event event) {
+    event.prev.next = event.next;
+    event.next.prev = event.prev;
+    event.prev = event.next = event;
+  }
+}
@@ -0,0 +1,249 @@
+package com.gigamonkeys.dungeon;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Multi-session server. Accepts telnet-style connections and runs each
+ * session's game loop on its own virtual thread so idle players, blocked
+ * reading their next command, don't tie up an OS thread. All the sessions play
+ * in one shared world, each keeping only its own changes to it.
+ *
+ * Every session that has done anything since the last checkpoint is
+ * checkpointed to the session directory periodically. Capturing a session's
+ * state only waits for the command it's running, if any, to finish, and the
+ * writing is done on the checkpoint thread. Every command is also journaled
+ * so when the server starts after a crash the sessions that were running can
+ * be rebuilt from their checkpoints and the journal. Each round of
+ * checkpoints starts a new journal, and the old one is deleted once they're
+ * all written, so the journal only ever holds about two rounds' worth of
+ * commands however long the server runs.
+ */
+public class Server {
+
+  public static final int DEFAULT_PORT = 4444;
+  public static final String DEFAULT_DIRECTORY = "sessions";
+
+  // Journal entry for the world all sessions are played in.
+  private static final String WORLD = "maze";
+
+  private static final int BACKLOG = 1024;
+  private static final int CHECKPOINT_SECONDS = 60;
+
+  private final InetSocketAddress address;
+  private final Path directory;
+  private final ExecutorService sessions = sessionExecutor();
+  private final ScheduledExecutorService checkpointer = Executors.newSingleThreadScheduledExecutor();
+  private final AtomicInteger ids = new AtomicInteger();
+  private final Map<Integer, Dungeon> live = new ConcurrentHashMap<>();
+  private final Template template = new Template(new Maze().build());
+  private Journal journal;
+
+  // Only touched on the checkpoint thread.
+  private final Map<Integer, Long> checkpointed = new HashMap<>();
+
+  public Server(InetSocketAddress address, Path directory) {
+    this.address = address;
+    this.directory = directory;
+  }
+
+  /**
+   * Accept connections forever, handing each one off to its own session.
+   */
+  public void serve() throws IOException {
+    recover();
+    journal = Journal.open(journalPath(), WORLD);
+    checkpointer.scheduleWithFixedDelay(this::checkpoint, CHECKPOINT_SECONDS, CHECKPOINT_SECONDS, TimeUnit.SECONDS);
+    try (var server = new ServerSocket()) {
+      server.setReuseAddress(true);
+      server.bind(address, BACKLOG);
+      System.out.println("Dungeon listening on " + server.getLocalSocketAddress());
+      while (true) {
+        var socket = server.accept();
+        sessions.execute(() -> session(socket));
+      }
+    }
+  }
+
+  private void session(Socket socket) {
+    var id = ids.incrementAndGet();
+    try (socket) {
+      socket.setTcpNoDelay(true);
+      var dungeon = newSession(id);
+      dungeon.journalTo(journal, id);
+      live.put(id, dungeon);
+      var in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+      var out = new PrintStream(new BufferedOutputStream(socket.getOutputStream()));
+      dungeon.loop(in, out, false);
+    } catch (IOException ioe) {
+      // Connection dropped. Nothing to clean up beyond closing the socket.
+    } finally {
+      live.remove(id);
+    }
+  }
+
+  /**
+   * Checkpoint every session that has run a command since it was last
+   * checkpointed.
+   *
+   * The journal is rotated first, so everything in the previous journal was
+   * journaled before the checkpoints were taken and once they're all written
+   * it can go. If any can't be written the previous journal is kept, and not
+   * replaced, until a round succeeds. Sessions that have ended don't need
+   * recovering so their commands can go too.
+   */
+  private void checkpoint() {
+    var previous = Journal.previous(journalPath());
+    try {
+      if (!Files.exists(previous)) journal.rotate();
+    } catch (IOException | UncheckedIOException e) {
+      System.err.println("Couldn't rotate the journal: " + e);
+      return;
+    }
+
+    checkpointed.keySet().retainAll(live.keySet());
+    var failed = new AtomicInteger();
+    live.forEach((id, dungeon) -> {
+      var turn = dungeon.turn();
+      if (turn != checkpointed.getOrDefault(id, 0L)) {
+        try {
+          Snapshot.write(checkpointPath(id), dungeon.checkpoint());
+          checkpointed.put(id, turn);
+        } catch (IOException ioe) {
+          failed.incrementAndGet();
+          System.err.println("Couldn't checkpoint session " + id + ": " + ioe);
+        }
+      }
+    });
+
+    if (failed.get() == 0) {
+      try {
+        Files.deleteIfExists(previous);
+      } catch (IOException ioe) {
+        System.err.println("Couldn't delete the old journal: " + ioe);
+      }
+    }
+    System.err.println(live.size() + " sessions; " + Room.descriptionStats() + "; " + journal.stats());
+  }
+
+  /**
+   * Rebuild any sessions with commands in the journal, the previous one and
+   * then the current one, from their last checkpoint, if any, and the
+   * commands journaled since, and checkpoint them so the journal can start
+   * over empty. Returns the rebuilt sessions.
+   */
+  Map<Integer, Dungeon> recover() throws IOException {
+    Files.createDirectories(directory);
+    var recovered = new TreeMap<Integer, Dungeon>();
+    var journals = List.of(Journal.previous(journalPath()), journalPath());
+    for (var path : journals) {
+      if (!Files.exists(path)) continue;
+      try {
+        Journal.replay(path, WORLD, id -> recovered.computeIfAbsent(id, this::restoreSession));
+      } catch (UncheckedIOException e) {
+        throw e.getCause();
+      }
+    }
+    for (var e : recovered.entrySet()) {
+      Snapshot.write(checkpointPath(e.getKey()), e.getValue().checkpoint());
+    }
+    for (var path : journals) Files.deleteIfExists(path);
+
+    // Don't reuse the ids of old sessions.
+    try (var files = Files.list(directory)) {
+      files
+        .map(p -> p.getFileName().toString())
+        .filter(n -> n.startsWith("session-"))
+        .mapToInt(n -> Integer.parseInt(n.substring(8, n.indexOf('.'))))
+        .max()
+        .ifPresent(ids::set);
+    }
+    return recovered;
+  }
+
+  private Dungeon newSession(int id) {
+    var dungeon = template.newGame();
+    dungeon.setSaveFile(directory.resolve("session-" + id + ".save"));
+    return dungeon;
+  }
+
+  private Dungeon restoreSession(int id) {
+    var dungeon = newSession(id);
+    try {
+      if (Files.exists(checkpointPath(id))) dungeon.recover(Snapshot.read(checkpointPath(id)));
+    } catch (IOException ioe) {
+      throw new UncheckedIOException(ioe);
+    }
+    return dungeon;
+  }
+
+  private Path checkpointPath(int id) {
+    return directory.resolve("session-" + id + ".checkpoint");
+  }
+
+  private Path journalPath() {
+    return directory.resolve("journal");
+  }
+
+  /**
+   * One virtual thread per session when the JVM has them; otherwise fall back
+   * to a cached pool of platform threads.
+   */
+  private static ExecutorService sessionExecutor() {
+    try {
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+      return Executors.newCachedThreadPool();
+    }
+  }
+
+  /**
+   * Usage: Server [port] [host] [dir]
+   *        Server --recover [dir]
+   *
+   * With --recover, just rebuilds the sessions in the journal, checkpoints
+   * them, and says where they each are.
+   */
+  public static void main(String[] args) {
+    if (args.length > 0 && args[0].equals("--recover")) {
+      var directory = Path.of(args.length > 1 ? args[1] : DEFAULT_DIRECTORY);
+      try {
+        new Server(null, directory)
+          .recover()
+          .forEach((id, d) -> System.out.println("Session " + id + " at turn " + d.turn() + d.start()));
+      } catch (IOException ioe) {
+        System.out.println("Yikes. Couldn't recover: " + ioe);
+      }
+      return;
+    }
+
+    var port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+    var host = args.length > 1 ? args[1] : InetAddress.getLoopbackAddress().getHostAddress();
+    var directory = Path.of(args.length > 2 ? args[2] : DEFAULT_DIRECTORY);
+    try {
+      new Server(new InetSocketAddress(host, port), directory).serve();
+    } catch (IOException ioe) {
+      System.out.println("Yikes. Server died: " + ioe);
+    }
+  }
+}
@@ -0,0 +1,311 @@
+package com.gigamonkeys.dungeon;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Saves and restores the state of a game. When a game starts every room and
+ * thing in the world is numbered, the rooms as in its Graph and the things in
+ * each room in turn, so the same world built the same way gets the same
+ * numbering, and a snapshot is the state that can change, recorded by
+ * number: each thing's hit points and flags, where each thing is, and where
+ * the player is.
+ *
+ * Since the Things themselves are never replaced, restoring keeps any
+ * behavior defined in their classes; custom state has to live in Thing's hit
+ * points or flags to be saved. The only new things a game can make are
+ * stacks split off other stacks, which are saved as extras, numbered after
+ * the original things, along with the thing they were split from. Restoring
+ * only touches the things whose state differs from the snapshot, after going
+ * back to the shared world if the game has an Overlay, so a restored game's
+ * overlay is no bigger than it needs to be.
+ *
+ * The numbering doesn't change once made so one Snapshot can be shared by all
+ * the games played in a shared world.
+ *
+ * Layout, all big-endian:
+ *
+ *   header:     magic, version, room count, thing count, turn (a long),
+ *               player room, player hit points
+ *   strings:    count then each string as a length and UTF-8 bytes
+ *   things:     hit points, flags, and count of every thing, in order
+ *   extras:     count then each extra's original thing, hit points, flags,
+ *               and count
+ *   placements: count then each placement: thing, kind of location,
+ *               location, and the string id of where in the location
+ *
+ * Placements are in the order the things were found in their locations so
+ * restoring them puts everything back in the same order.
+ */
+public class Snapshot {
+
+  private static final int MAGIC = 0x44534156; // "DSAV"
+  private static final int VERSION = 2;
+
+  // Kinds of location
+  private static final byte ROOM = 0;
+  private static final byte THING = 1;
+  private static final byte PLAYER = 2;
+
+  private final Graph graph;
+  private final Thing[] things;
+  private final Map<Thing, Integer> thingIds = new IdentityHashMap<>();
+
+  /**
+   * Number everything in the rooms of the graph. Must be called before
+   * anything has happened in the world.
+   */
+  public Snapshot(Graph graph) {
+    this.graph = graph;
+    var things = new ArrayList<Thing>();
+    for (var r = 0; r < graph.size(); r++) {
+      number(graph.room(r), things);
+    }
+    this.things = things.toArray(new Thing[0]);
+  }
+
+  private void number(Location location, List<Thing> things) {
+    for (var t : location.things()) {
+      thingIds.put(t, things.size());
+      things.add(t);
+      number(t, things);
+    }
+  }
+
+  public int things() {
+    return things.length;
+  }
+
+  /**
+   * Capture the current state of the world and player.
+   */
+  public byte[] capture(Player player, long turn) {
+    var placements = new Placements();
+    for (var i = 0; i < graph.size(); i++) {
+      placements.add(graph.room(i), ROOM, i);
+    }
+    placements.add(player, PLAYER, 0);
+
+    var strings = placements.strings.stream().map(s -> s.getBytes(StandardCharsets.UTF_8)).toList();
+    var extras = placements.extras;
+    var size = 36 + things.length * 12 + 4 + extras.size() * 16 + 4 + placements.size * 13;
+    for (var s : strings) size += 4 + s.length;
+
+    var b = ByteBuffer.allocate(size);
+    b.putInt(MAGIC).putInt(VERSION).putInt(graph.size()).putInt(things.length).putLong(turn);
+    b.putInt(graph.id(player.room())).putInt(player.hitPoints());
+    b.putInt(strings.size());
+    for (var s : strings) b.putInt(s.length).put(s);
+    for (var t : things) b.putInt(t.hitPoints()).putInt(t.flags()).putInt(t.count());
+    b.putInt(extras.size());
+    for (var t : extras) {
+      b.putInt(thingIds.get(t.origin())).putInt(t.hitPoints()).putInt(t.flags()).putInt(t.count());
+    }
+    b.putInt(placements.size);
+    for (var i = 0; i < placements.size; i++) {
+      b.putInt(placements.things[i]).put(placements.kinds[i]).putInt(placements.locations[i]);
+      b.putInt(placements.wheres[i]);
+    }
+    return b.array();
+  }
+
+  /**
+   * Put the world back the way it was when the snapshot was captured,
+   * returning the turn it was captured on.
+   */
+  public long restore(Player player, byte[] bytes) throws IOException {
+    var b = ByteBuffer.wrap(bytes);
+    if (b.getInt() != MAGIC) throw new IOException("Not a saved game");
+    if (b.getInt() != VERSION) throw new IOException("Unsupported saved game version");
+    if (b.getInt() != graph.size() || b.getInt() != things.length) {
+      throw new IOException("Saved game is from a different world");
+    }
+    var turn = b.getLong();
+    var room = graph.room(b.getInt());
+    var hitPoints = b.getInt();
+
+    var strings = new String[b.getInt()];
+    for (var i = 0; i < strings.length; i++) {
+      var s = new byte[b.getInt()];
+      b.get(s);
+      strings[i] = new String(s, StandardCharsets.UTF_8);
+    }
+
+    // The player isn't part of the shared world so empty their inventory
+    // before going back to it.
+    for (var t : List.copyOf(player.things())) {
+      player.removeThing(t);
+    }
+    var overlay = Overlay.current();
+    if (overlay != null) {
+      overlay.clear();
+    } else if (Thing.copies() > 0) {
+      removeExtras();
+    }
+
+    for (var t : things) {
+      var hp = b.getInt();
+      var flags = b.getInt();
+      var n = b.getInt();
+      if (t.hitPoints() != hp) t.setHitPoints(hp);
+      if (t.flags() != flags) t.setFlags(flags);
+      if (t.count() != n) t.setCount(n);
+    }
+
+    var all = Arrays.copyOf(things, things.length + b.getInt());
+    for (var i = things.length; i < all.length; i++) {
+      all[i] = things[b.getInt()].copy(b.getInt(), b.getInt(), b.getInt());
+    }
+
+    var count = b.getInt();
+    var order = new int[count];
+    var locations = new Location[all.length];
+    var wheres = new String[all.length];
+    for (var i = 0; i < count; i++) {
+      var id = b.getInt();
+      var kind = b.get();
+      var location = b.getInt();
+      order[i] = id;
+      locations[id] = kind == ROOM ? graph.room(location) : kind == THING ? all[location] : player;
+      wheres[id] = strings[b.getInt()];
+    }
+
+    // Take out everything that's not where it should be and then put it all
+    // back in the order it was found.
+    var moved = new boolean[all.length];
+    for (var i = 0; i < all.length; i++) {
+      var t = all[i];
+      var current = t.location().orElse(null);
+      var where = current != null ? current.locationMap().get(t.name()).where() : null;
+      if (current != locations[i] || (where != null && !where.equals(wheres[i]))) {
+        moved[i] = true;
+        if (current != null) current.removeThing(t);
+      }
+    }
+    for (var id : order) {
+      if (moved[id]) locations[id].placeThing(all[id], wheres[id]);
+    }
+
+    player.restore(room, hitPoints);
+    return turn;
+  }
+
+  /**
+   * Take everything that wasn't numbered, i.e. stacks split off other stacks,
+   * out of the world. A game with an Overlay gets rid of them by clearing it.
+   * This has to look everywhere so is skipped if nothing has ever been split.
+   */
+  private void removeExtras() {
+    var extras = new ArrayList<Thing>();
+    for (var r = 0; r < graph.size(); r++) findExtras(graph.room(r), extras);
+    for (var t : extras) t.location().ifPresent(l -> l.removeThing(t));
+  }
+
+  private void findExtras(Location location, List<Thing> extras) {
+    for (var pt : location.placedThings()) {
+      var t = pt.thing();
+      if (thingIds.containsKey(t)) {
+        findExtras(t, extras);
+      } else {
+        extras.add(t);
+      }
+    }
+  }
+
+  /**
+   * Where everything is, in the order it was found.
+   */
+  private class Placements {
+
+    int size = 0;
+    int[] things = new int[16];
+    byte[] kinds = new byte[16];
+    int[] locations = new int[16];
+    int[] wheres = new int[16];
+    final List<String> strings = new ArrayList<>();
+    final Map<String, Integer> stringIds = new HashMap<>();
+    final List<Thing> extras = new ArrayList<>();
+
+    void add(Location location, byte kind, int id) {
+      for (var pt : location.placedThings()) {
+        var thingId = id(pt.thing());
+        if (size == things.length) grow();
+        things[size] = thingId;
+        kinds[size] = kind;
+        locations[size] = id;
+        wheres[size] = string(pt.where());
+        size++;
+        add(pt.thing(), THING, thingId);
+      }
+    }
+
+    /**
+     * The thing's number, numbering it as an extra if it was split off an
+     * original thing.
+     */
+    private int id(Thing t) {
+      var id = thingIds.get(t);
+      if (id != null) return id;
+      if (!thingIds.containsKey(t.origin())) throw new IllegalStateException("Can't save " + t.name() + "; it's new.");
+      extras.add(t);
+      return Snapshot.this.things.length + extras.size() - 1;
+    }
+
+    private int string(String s) {
+      return stringIds.computeIfAbsent(
+        s,
+        k -> {
+          strings.add(k);
+          return strings.size() - 1;
+        }
+      );
+    }
+
+    private void grow() {
+      things = Arrays.copyOf(things, size * 2);
+      kinds = Arrays.copyOf(kinds, size * 2);
+      locations = Arrays.copyOf(locations, size * 2);
+      wheres = Arrays.copyOf(wheres, size * 2);
+    }
+  }
+
+  //////////////////////////////////////////////////////////////////////////////
+  // Files
+
+  /**
+   * Write a snapshot so that the file either has the old snapshot or all of
+   * the new one, never part of it, even if we crash.
+   */
+  public static void write(Path path, byte[] bytes) throws IOException {
+    var tmp = path.resolveSibling(path.getFileName() + ".tmp");
+    try (
+      var channel = FileChannel.open(
+        tmp,
+        StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING
+      )
+    ) {
+      var b = ByteBuffer.wrap(bytes);
+      while (b.hasRemaining()) channel.write(b);
+      channel.force(false);
+    }
+    Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  public static byte[] read(Path path) throws IOException {
+    return Files.readAllBytes(path);
+  }
+}
@@ -0,0 +1,158 @@
+package com.gigamonkeys.dungeon;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Index for suggesting corrections to misspelled words. Every word is stored
+ * under all the strings that can be made by deleting up to MAX_DISTANCE of its
+ * characters, so finding the words near a misspelling only takes looking up
+ * the misspelling's own deletions. The cost of a lookup depends on the length
+ * of the word, not on how many words are indexed.
+ *
+ * Words are reference counted so the same name can be added once for every
+ * thing that has it and the index updated as things come and go.
+ */
+public class Spelling {
+
+  public static final int MAX_DISTANCE = 2;
+
+  // Don't bother suggesting anything for words shorter than this.
+  private static final int MIN_LENGTH = 3;
+
+  public static record Suggestion(String word, int distance) {}
+
+  private final Map<String, Integer> counts = new HashMap<>();
+  private final Map<String, List<String>> deletes = new HashMap<>();
+
+  public void add(String word) {
+    if (counts.merge(word, 1, Integer::sum) == 1) {
+      for (var d : deletions(word, maxDistance(word))) {
+        deletes.computeIfAbsent(d, k -> new ArrayList<>(1)).add(word);
+      }
+    }
+  }
+
+  public void remove(String word) {
+    var count = counts.get(word);
+    if (count == null) return;
+    if (count > 1) {
+      counts.put(word, count - 1);
+    } else {
+      counts.remove(word);
+      for (var d : deletions(word, maxDistance(word))) {
+        var words = deletes.get(d);
+        words.remove(word);
+        if (words.isEmpty()) deletes.remove(d);
+      }
+    }
+  }
+
+  public boolean contains(String word) {
+    return counts.containsKey(word);
+  }
+
+  /**
+   * The closest indexed word to the given word, if there is one within
+   * editing distance. Ties go to the alphabetically first word.
+   */
+  public Optional<Suggestion> suggest(String word) {
+    if (word.length() < MIN_LENGTH || counts.containsKey(word)) return Optional.empty();
+
+    var max = maxDistance(word);
+    String best = null;
+    var bestDistance = max + 1;
+    for (var d : deletions(word, max)) {
+      var words = deletes.get(d);
+      if (words == null) continue;
+      for (var w : words) {
+        var limit = Math.min(max, maxDistance(w));
+        var distance = distance(word, w, limit);
+        if (distance > limit) continue;
+        if (distance < bestDistance || (distance == bestDistance && w.compareTo(best) < 0)) {
+          best = w;
+          bestDistance = distance;
+        }
+      }
+    }
+    return best != null ? Optional.of(new Suggestion(best, bestDistance)) : Optional.empty();
+  }
+
+  /**
+   * Pick the better of two suggestions.
+   */
+  public static Optional<Suggestion> closer(Optional<Suggestion> a, Optional<Suggestion> b) {
+    if (a.isEmpty()) return b;
+    if (b.isEmpty()) return a;
+    return b.get().distance() < a.get().distance() ? b : a;
+  }
+
+  /**
+   * Short words only get one edit; otherwise "cat" would suggest "rat", "cap",
+   * "hat", and most other three-letter words.
+   */
+  private static int maxDistance(String word) {
+    return word.length() <= 4 ? 1 : MAX_DISTANCE;
+  }
+
+  /**
+   * The word and everything that can be made by deleting up to max characters.
+   */
+  private static Set<String> deletions(String word, int max) {
+    var result = new HashSet<String>();
+    result.add(word);
+    var frontier = List.of(word);
+    for (var i = 0; i < max; i++) {
+      var next = new ArrayList<String>();
+      for (var w : frontier) {
+        if (w.length() <= 1) continue;
+        for (var j = 0; j < w.length(); j++) {
+          var d = w.substring(0, j) + w.substring(j + 1);
+          if (result.add(d)) next.add(d);
+        }
+      }
+      frontier = next;
+    }
+    return result;
+  }
+
+  /**
+   * Optimal string alignment distance (Levenshtein plus transpositions of
+   * adjacent characters) or max + 1 if it's more than max.
+   */
+  static int distance(String a, String b, int max) {
+    if (Math.abs(a.length() - b.length()) > max) return max + 1;
+
+    var prev2 = new int[b.length() + 1];
+    var prev = new int[b.length() + 1];
+    var curr = new int[b.length() + 1];
+    for (var j = 0; j <= b.length(); j++) prev[j] = j;
+    var prevMin = 0;
+
+    for (var i = 1; i <= a.length(); i++) {
+      curr[0] = i;
+      var rowMin = curr[0];
+      for (var j = 1; j <= b.length(); j++) {
+        var cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+        curr[j] = Math.min(Math.min(prev[j] + 1, curr[j - 1] + 1), prev[j - 1] + cost);
+        if (i > 1 && j > 1 && a.charAt(i - 1) == b.charAt(j - 2) && a.charAt(i - 2) == b.charAt(j - 1)) {
+          curr[j] = Math.min(curr[j], prev2[j - 2] + 1);
+        }
+        rowMin = Math.min(rowMin, curr[j]);
+      }
+      // Transpositions reach back two rows so both have to be out of range.
+      if (rowMin > max && prevMin > max) return max + 1;
+      prevMin = rowMin;
+      var t = prev2;
+      prev2 = prev;
+      prev = curr;
+      curr = t;
+    }
+    return Math.min(prev[b.length()], max + 1);
+  }
+}
@@ -0,0 +1,68 @@
+package com.gigamonkeys.dungeon;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The things in a location, however deeply nested, that react to each kind
+ * of action, so an action only has to be shown to the things that care about
+ * it rather than to everything in the room. Most things don't react to
+ * anything.
+ *
+ * Each list is kept in the order the things were made so things react in the
+ * same order no matter how they got where they are.
+ *
+ * Kept up to date by the location's arrived and departed methods, like its
+ * NameIndex.
+ */
+public class Subscribers {
+
+  private static final Comparator<Thing> ORDER = Comparator.comparingLong(Thing::serial);
+
+  private final Map<Class<? extends Action>, List<Thing>> byType = new HashMap<>();
+
+  /**
+   * Subscribe a thing and everything in it.
+   */
+  public void add(Thing thing) {
+    add1(thing);
+    thing.allThings().forEach(this::add1);
+  }
+
+  /**
+   * Unsubscribe a thing and everything in it.
+   */
+  public void remove(Thing thing) {
+    remove1(thing);
+    thing.allThings().forEach(this::remove1);
+  }
+
+  /**
+   * The things that react to the given kind of action.
+   */
+  public List<Thing> to(Class<? extends Action> type) {
+    return byType.getOrDefault(type, List.of());
+  }
+
+  private void add1(Thing thing) {
+    for (var type : thing.reactsTo()) {
+      var things = byType.computeIfAbsent(type, k -> new ArrayList<>(2));
+      var i = Collections.binarySearch(things, thing, ORDER);
+      if (i < 0) things.add(-i - 1, thing);
+    }
+  }
+
+  private void remove1(Thing thing) {
+    for (var type : thing.reactsTo()) {
+      var things = byType.get(type);
+      if (things == null) continue;
+      var i = Collections.binarySearch(things, thing, ORDER);
+      if (i >= 0) things.remove(i);
+      if (things.isEmpty()) byType.remove(type);
+    }
+  }
+}
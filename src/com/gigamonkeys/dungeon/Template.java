@@ -0,0 +1,58 @@
+package com.gigamonkeys.dungeon;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A world built once and played in by any number of games at once. Each game
+ * keeps its changes to the world in its own Overlay so the world itself is
+ * never changed, and the things every game needs that depend only on the
+ * world (the names of the things in it, the vocabulary, the numbering used
+ * for saving, and the routes for traveling) are worked out once and shared.
+ */
+public class Template {
+
+  private final Room start;
+  private final Collection<String> names;
+  private final Snapshot snapshot;
+  private final Router router;
+  private final Vocabulary vocabulary = new Vocabulary();
+
+  public Template(Room start) {
+    this.start = start;
+    this.names = List.copyOf(Vocabulary.names(start));
+    var graph = Graph.of(start);
+    this.snapshot = new Snapshot(graph);
+    this.router = new Router(graph);
+    // Making a game adds all the words any game will add so after this the
+    // vocabulary is only ever read and can be shared between threads.
+    newGame();
+  }
+
+  /**
+   * Start a new game in this world.
+   */
+  public Dungeon newGame() {
+    return new Dungeon(this, new Overlay());
+  }
+
+  Room start() {
+    return start;
+  }
+
+  Collection<String> names() {
+    return names;
+  }
+
+  Snapshot snapshot() {
+    return snapshot;
+  }
+
+  Router router() {
+    return router;
+  }
+
+  Vocabulary vocabulary() {
+    return vocabulary;
+  }
+}
@@ -2,6 +2,7 @@ package com.gigamonkeys.dungeon;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
 import java.util.stream.Stream;
 
 /**
@@ -17,6 +18,14 @@ class Text {
     return a + thing;
   }
 
+  /**
+   * "a thing" or, for a stack, "3 things".
+   */
+  public static String a(Thing thing) {
+    var n = thing.count();
+    return n == 1 ? a(thing.description()) : numberOf(n, thing.description());
+  }
+
   public static String plural(String s, int n) {
     if (n == 1) {
       return s;
@@ -29,6 +38,17 @@ class Text {
     }
   }
 
+  /**
+   * Undo plural, e.g. "arrows" to "arrow". Words that don't look plural are
+   * returned as is.
+   */
+  public static String singular(String s) {
+    if (s.endsWith("ies")) return s.substring(0, s.length() - 3) + "y";
+    if (s.endsWith("xes")) return s.substring(0, s.length() - 2);
+    if (s.endsWith("s")) return s.substring(0, s.length() - 1);
+    return s;
+  }
+
   public static String isAre(int n) {
     return n == 1 ? " is " : " are ";
   }
@@ -54,6 +74,19 @@ class Text {
     };
   }
 
+  public static String either(List<String> items) {
+    return switch (items.size()) {
+      case 0 -> "";
+      case 1 -> items.get(0);
+      case 2 -> items.get(0) + " or " + items.get(1);
+      default -> String.join(", ", items.subList(0, items.size() - 1)) + ", or " + items.get(items.size() - 1);
+    };
+  }
+
+  public static String didYouMean(Optional<Spelling.Suggestion> suggestion) {
+    return suggestion.map(s -> " Did you mean " + s.word() + "?").orElse("");
+  }
+
   public static class Wrapped {
 
     private List<String> items = new ArrayList<>();
@@ -68,24 +101,18 @@ class Text {
       return this;
     }
 
+    /**
+     * Write the items as one word-wrapped paragraph.
+     */
+    public void renderTo(Renderer out) {
+      out.paragraph();
+      for (var text : items) out.words(text);
+    }
+
     public String toString() {
-      var sb = new StringBuilder();
-      int col = 0;
-      for (var text : items) {
-        for (var t : text.split("\\s+")) {
-          if (col + 1 + t.length() > WRAP) {
-            sb.append("\n");
-            col = 0;
-          }
-          if (col > 0) {
-            sb.append(" ");
-            col++;
-          }
-          sb.append(t);
-          col += t.length();
-        }
-      }
-      return sb.toString().strip();
+      var out = new Renderer(WRAP, 256);
+      renderTo(out);
+      return out.toString();
     }
   }
 }
@@ -2,10 +2,11 @@ package com.gigamonkeys.dungeon;
 
 import static com.gigamonkeys.dungeon.Text.*;
 
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.util.*;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Stream;
 
 /**
@@ -17,30 +18,125 @@ import java.util.stream.Stream;
  */
 public class Thing implements Location, Attack.Target {
 
-  private final Map<String, PlacedThing> things = new HashMap<>();
+  // Numbers things in the order they're made.
+  private static final AtomicLong serials = new AtomicLong();
+
+  // Number of things ever made by copying another thing.
+  private static final AtomicLong copies = new AtomicLong();
+
+  // The classes whose things can be stacked.
+  private static final Set<Class<?>> PLAIN = Set.of(Thing.class, Weapon.class, Food.class);
+
+  // The kinds of action each class of thing has an onX method for.
+  private static final ClassValue<Set<Class<? extends Action>>> REACTIONS = new ClassValue<>() {
+    protected Set<Class<? extends Action>> computeValue(Class<?> type) {
+      var types = new HashSet<Class<? extends Action>>();
+      for (var c = type; c != Thing.class; c = c.getSuperclass()) {
+        for (var m : c.getDeclaredMethods()) {
+          if (isReaction(m)) types.add(m.getParameterTypes()[0].asSubclass(Action.class));
+        }
+      }
+      return Set.copyOf(types);
+    }
+  };
+
+  // Not final so a world built in parallel can be put in order; see renumber.
+  private long serial = serials.getAndIncrement();
+  private final Prototype prototype;
+
+  // The thing this one was split off from, if any; see split.
+  private Thing origin = null;
 
-  private final String name;
-  private final String description;
-  private final boolean isPortable;
-  private final boolean isMonster;
+  // Everything about a Thing that can change, so it can be copied into an
+  // Overlay when the world is shared.
+  private final State state;
 
-  private int hitPoints = 0;
-  private Optional<Location> location = Optional.empty();
+  /**
+   * What all the things of a kind have in common, e.g. all the rusty swords in
+   * a generated world. Immutable so one can be shared by any number of things.
+   */
+  public static record Prototype(String name, String description, boolean isPortable, boolean isMonster) {}
+
+  private static final class State {
+
+    // Null until something is put in the thing, which most things never have.
+    Contents things;
+    int hitPoints;
+    int flags;
+    int count = 1;
+    Location location;
+
+    State(Contents things, int hitPoints, int flags, Location location) {
+      this.things = things;
+      this.hitPoints = hitPoints;
+      this.flags = flags;
+      this.location = location;
+    }
+
+    State copy() {
+      var copy = new State(things != null ? things.copy() : null, hitPoints, flags, location);
+      copy.count = count;
+      return copy;
+    }
+  }
 
   Thing(String name, String description, boolean isPortable, boolean isMonster, int hitPoints) {
-    this.name = name;
-    this.description = description;
-    this.hitPoints = hitPoints;
-    this.isPortable = isPortable;
-    this.isMonster = isMonster;
+    this(new Prototype(name, description, isPortable, isMonster), hitPoints);
+  }
+
+  Thing(Prototype prototype, int hitPoints) {
+    this.prototype = prototype;
+    this.state = new State(null, hitPoints, 0, null);
+  }
+
+  private State state() {
+    return Overlay.read(this, state);
+  }
+
+  private State writable() {
+    return Overlay.write(this, state, this::copyState);
+  }
+
+  private State copyState(State shared) {
+    var copy = shared.copy();
+    copy.hitPoints = sharedHitPoints();
+    return copy;
+  }
+
+  /**
+   * Whether reading this thing's state reads the shared state, i.e. there's
+   * no overlay in effect with its own copy.
+   */
+  final boolean isShared() {
+    return Overlay.read(this, state) == state;
+  }
+
+  /**
+   * The hit points in the shared state. A subclass that keeps its hit points
+   * somewhere else has to say where.
+   */
+  int sharedHitPoints() {
+    return state.hitPoints;
   }
 
   public String name() {
-    return name;
+    return prototype.name();
   }
 
   public String description() {
-    return description;
+    return prototype.description();
+  }
+
+  /**
+   * The description the thing was created with, regardless of any state that
+   * description() may take into account.
+   */
+  final String baseDescription() {
+    return prototype.description();
+  }
+
+  final Prototype prototype() {
+    return prototype;
   }
 
   public String describeThings() {
@@ -48,17 +144,19 @@ public class Thing implements Location, Attack.Target {
 
     var byPlace = groupByPlace();
 
-    places()
-      .stream()
-      .flatMap(place -> {
-        var things = byPlace.getOrDefault(place, List.of()).stream().map(t -> a(t.description())).toList();
-        return things.isEmpty()
-          ? Stream.empty()
-          : Stream.of(capitalize(place) + " the " + name() + isAre(things.size()) + commify(things) + ".");
-      })
-      .forEach(desc::add);
+    for (var place : places()) {
+      var things = byPlace.get(place);
+      if (things == null || things.isEmpty()) continue;
+      var descriptions = new ArrayList<String>(things.size());
+      var count = 0;
+      for (var t : things) {
+        descriptions.add(a(t));
+        count += t.count();
+      }
+      desc.add(capitalize(place) + " the " + name() + isAre(count) + commify(descriptions) + ".");
+    }
 
-    things().stream().map(Thing::describeThings).forEach(desc::add);
+    for (var pt : placedThings()) desc.add(pt.thing().describeThings());
 
     return String.join(" ", desc);
   }
@@ -76,15 +174,45 @@ public class Thing implements Location, Attack.Target {
   }
 
   public boolean isPortable() {
-    return isPortable;
+    return prototype.isPortable();
   }
 
   public boolean isMonster() {
-    return isMonster;
+    return prototype.isMonster();
   }
 
   public int hitPoints() {
-    return hitPoints;
+    return state().hitPoints;
+  }
+
+  void setHitPoints(int hitPoints) {
+    writable().hitPoints = hitPoints;
+    changed();
+  }
+
+  /**
+   * Bits of state for subclasses that need to keep track of more than hit
+   * points, e.g. whether a chest is open. State kept here, rather than in
+   * fields of the subclass, is saved with the game and changing it lets the
+   * room know its description has changed.
+   */
+  protected boolean flag(int bit) {
+    return (state().flags & bit) != 0;
+  }
+
+  protected void setFlag(int bit, boolean on) {
+    var s = writable();
+    s.flags = on ? s.flags | bit : s.flags & ~bit;
+    changed();
+  }
+
+  int flags() {
+    return state().flags;
+  }
+
+  void setFlags(int flags) {
+    writable().flags = flags;
+    changed();
   }
 
   public Attack attack() {
@@ -111,9 +239,9 @@ public class Thing implements Location, Attack.Target {
    * Apply an attack to this thing as a target.
    */
   public String applyAttack(Attack attack) {
-    hitPoints -= attack.damage();
+    setHitPoints(hitPoints() - attack.damage());
 
-    if (hitPoints < -500) {
+    if (hitPoints() < -500) {
       return destroy("");
     }
 
@@ -132,7 +260,97 @@ public class Thing implements Location, Attack.Target {
   }
 
   public String who() {
-    return "the " + name;
+    return "the " + name();
+  }
+
+  //////////////////////////////////////////////////////////////////////////////
+  // Stacks. A stack of identical things, e.g. twenty arrows, is one Thing with
+  // a count, rather than twenty Things, until some of them are taken.
+
+  /**
+   * How many identical things this thing stands for.
+   */
+  public int count() {
+    return state().count;
+  }
+
+  void setCount(int count) {
+    writable().count = count;
+    changed();
+  }
+
+  /**
+   * Can other things be stacked with this one? Only portable things made
+   * directly from the plain classes here; a subclass with behavior of its own
+   * wouldn't know how to make another() one like itself.
+   */
+  public boolean isStackable() {
+    return isPortable() && !isMonster() && PLAIN.contains(getClass());
+  }
+
+  /**
+   * Would the other thing be indistinguishable from this one if they were
+   * stacked?
+   */
+  public boolean stacksWith(Thing other) {
+    return (
+      other != this &&
+      other.getClass() == getClass() &&
+      other.prototype.equals(prototype) &&
+      isStackable() &&
+      other.hitPoints() == hitPoints() &&
+      other.flags() == flags() &&
+      things().isEmpty() &&
+      other.things().isEmpty()
+    );
+  }
+
+  /**
+   * Split n things off this stack, returning them as a new thing, not yet in
+   * any location, or this thing itself if n is the whole stack.
+   */
+  public Thing split(int n) {
+    if (n >= count()) return this;
+    var other = copy(hitPoints(), flags(), n);
+    setCount(count() - n);
+    return other;
+  }
+
+  /**
+   * A new thing like this one with the given state, not yet in any location.
+   */
+  final Thing copy(int hitPoints, int flags, int count) {
+    var other = another();
+    copies.incrementAndGet();
+    other.origin = origin();
+    // No one else can see the new thing yet so there's no need to go through
+    // the overlay.
+    other.state.hitPoints = hitPoints;
+    other.state.flags = flags;
+    other.state.count = count;
+    return other;
+  }
+
+  /**
+   * A new thing like this one as it was made. Only called on stackable things.
+   */
+  protected Thing another() {
+    return new Thing(prototype, 0);
+  }
+
+  /**
+   * Number of things made by copy() so far, in any world.
+   */
+  static long copies() {
+    return copies.get();
+  }
+
+  /**
+   * The thing in the world as it was first built that this thing was split
+   * off from, possibly indirectly, or this thing.
+   */
+  final Thing origin() {
+    return origin != null ? origin : this;
   }
 
   /**
@@ -147,7 +365,7 @@ public class Thing implements Location, Attack.Target {
   // Movement
 
   public final Optional<Location> location() {
-    return location;
+    return Optional.ofNullable(state().location);
   }
 
   public String moveTo(Location location, String place) {
@@ -156,28 +374,104 @@ public class Thing implements Location, Attack.Target {
   }
 
   public final void setLocation(Location location) {
-    this.location = Optional.of(location);
+    writable().location = location;
+    moved(location);
   }
 
   public final void clearLocation() {
-    location = Optional.empty();
+    writable().location = null;
+    moved(null);
   }
 
+  /**
+   * Called whenever the thing's location changes, with the new location or
+   * null.
+   */
+  void moved(Location location) {}
+
   //////////////////////////////////////////////////////////////////////////////
   // Location implementation -- things can contain things.
 
-  public Map<String, PlacedThing> locationMap() {
-    return things;
+  public Contents contents() {
+    var things = state().things;
+    return things != null ? things : Contents.EMPTY;
+  }
+
+  public Contents writableContents() {
+    var s = writable();
+    if (s.things == null) s.things = new Contents();
+    return s.things;
   }
 
   public boolean canTake(Thing thing) {
     return !alive();
   }
 
+  public void arrived(Thing thing) {
+    location().ifPresent(l -> l.arrived(thing));
+  }
+
+  public void departed(Thing thing) {
+    location().ifPresent(l -> l.departed(thing));
+  }
+
+  public void changed() {
+    location().ifPresent(Location::changed);
+  }
+
   //////////////////////////////////////////////////////////////////////////////
-  // Action events. When an action occurs all the things in the room are
-  // notified via the appropriate one of these methods and can generate
-  // reactions which are then processed as part of the turn.
+  // Action events. When an action occurs all the things in the room that react
+  // to that kind of action are notified via the appropriate one of these
+  // methods and can generate reactions which are then processed as part of the
+  // turn. The onX methods must only look at the world, leaving any changes to
+  // the actions they return, since in a crowded room they're called from
+  // several threads at once; see Cascade.
+
+  /**
+   * The kinds of action this thing reacts to. By default the ones whose onX
+   * methods its class overrides. Things that override an onX method but only
+   * sometimes want to hear about it can say so here, but the answer mustn't
+   * change while the thing is in a room.
+   */
+  public Set<Class<? extends Action>> reactsTo() {
+    return REACTIONS.get(getClass());
+  }
+
+  /**
+   * Order in which the thing was made, which is the order things in the same
+   * room react in.
+   */
+  final long serial() {
+    return serial;
+  }
+
+  /**
+   * Number everything in a location again, each thing before what's in it, as
+   * if they'd just been made in that order, e.g. room by room once a world
+   * built a row per thread is done, so they react in the same order however
+   * the threads ran. Only for things nothing has subscribed yet since
+   * Subscribers keeps its lists sorted by serial.
+   */
+  static void renumber(Location location) {
+    // forEach rather than values() which would leave a view behind in every map.
+    location
+      .contents()
+      .byName()
+      .forEach((name, pt) -> {
+        pt.thing().serial = serials.getAndIncrement();
+        renumber(pt.thing());
+      });
+  }
+
+  private static boolean isReaction(Method m) {
+    return (
+      m.getName().startsWith("on") &&
+      m.getParameterCount() == 1 &&
+      Action.class.isAssignableFrom(m.getParameterTypes()[0]) &&
+      !Modifier.isStatic(m.getModifiers()) &&
+      !m.isBridge()
+    );
+  }
 
   public Stream<Action> onAttack(Action.Attack a) {
     return Stream.empty();
@@ -236,10 +530,23 @@ public class Thing implements Location, Attack.Target {
 
   static class Monster extends Thing {
 
+    // Flags for monsters that wander off a couple turns after the player
+    // comes in and ones that lie in wait and attack a few turns after.
+    static final int WANDERS = 1 << 16;
+    static final int LURKS = 1 << 17;
+
     private final String deadDescription;
 
+    // Where the hit points live, if the monster's been put in a MonsterStore.
+    private MonsterStore store = null;
+    private int slot;
+
     Monster(String name, String liveDescription, String deadDescription, int hitPoints, boolean isPortable) {
-      super(name, liveDescription, isPortable, true, hitPoints);
+      this(new Prototype(name, liveDescription, isPortable, true), deadDescription, hitPoints);
+    }
+
+    Monster(Prototype prototype, String deadDescription, int hitPoints) {
+      super(prototype, hitPoints);
       this.deadDescription = deadDescription;
     }
 
@@ -254,6 +561,61 @@ public class Thing implements Location, Attack.Target {
     public String description() {
       return alive() ? super.description() : deadDescription;
     }
+
+    String deadDescription() {
+      return deadDescription;
+    }
+
+    public Stream<Action> onEnter(Action.Go a) {
+      var p = a.player();
+      if (alive() && flag(WANDERS)) {
+        return Stream.of(new Action.Later(p, 2, null, new Action.Wander(p, this)));
+      } else if (alive() && flag(LURKS)) {
+        return Stream.of(new Action.Later(p, 3, p.room(), new Action.Ambush(p, this)));
+      } else {
+        return Stream.empty();
+      }
+    }
+
+    public Attack attack() {
+      return flag(LURKS) ? new Attack.Simple("The " + name() + " leaps out at you!", 2) : super.attack();
+    }
+
+    public int hitPoints() {
+      return inStore() ? store.hitPoints(slot) : super.hitPoints();
+    }
+
+    void setHitPoints(int hitPoints) {
+      // Through an overlay the change goes in the overlay's copy.
+      if (store != null && Overlay.current() == null) {
+        store.setHitPoints(slot, hitPoints);
+        changed();
+      } else {
+        super.setHitPoints(hitPoints);
+      }
+    }
+
+    int sharedHitPoints() {
+      return store != null ? store.hitPoints(slot) : super.sharedHitPoints();
+    }
+
+    void moved(Location location) {
+      if (store != null) store.moved(slot, location);
+    }
+
+    /**
+     * Keep this monster's hit points in the given slot of a store from now on.
+     */
+    void storeIn(MonsterStore store, int slot) {
+      this.store = store;
+      this.slot = slot;
+    }
+
+    // The store has the shared hit points but an overlay with its own copy of
+    // the state has its own.
+    private boolean inStore() {
+      return store != null && isShared();
+    }
   }
 
   static class Furniture extends Thing {
@@ -261,6 +623,10 @@ public class Thing implements Location, Attack.Target {
     Furniture(String name, String description) {
       super(name, description, false, false, 0);
     }
+
+    Furniture(Prototype prototype) {
+      super(prototype, 0);
+    }
   }
 
   static class Weapon extends Thing {
@@ -268,13 +634,25 @@ public class Thing implements Location, Attack.Target {
     private final Attack attack;
 
     Weapon(String name, String description, Attack attack) {
-      super(name, description, true, false, 0);
+      this(new Prototype(name, description, true, false), attack);
+    }
+
+    Weapon(Prototype prototype, Attack attack) {
+      super(prototype, 0);
       this.attack = attack;
     }
 
     public Attack attack() {
       return attack;
     }
+
+    public boolean stacksWith(Thing other) {
+      return super.stacksWith(other) && attack.equals(other.attack());
+    }
+
+    protected Thing another() {
+      return new Weapon(prototype(), attack);
+    }
   }
 
   static class Food extends Thing {
@@ -282,12 +660,35 @@ public class Thing implements Location, Attack.Target {
     private final String eat;
 
     Food(String name, String description, String eat) {
-      super(name, description, true, false, 0);
+      this(new Prototype(name, description, true, false), eat);
+    }
+
+    Food(Prototype prototype, String eat) {
+      super(prototype, 0);
       this.eat = eat;
     }
 
+    /**
+     * Eating one of a stack leaves the rest.
+     */
     public String eat() {
+      if (count() > 1) {
+        setCount(count() - 1);
+        return eat;
+      }
       return destroy(eat);
     }
+
+    public boolean stacksWith(Thing other) {
+      return super.stacksWith(other) && eat.equals(((Food) other).eat);
+    }
+
+    protected Thing another() {
+      return new Food(prototype(), eat);
+    }
+
+    String eatDescription() {
+      return eat;
+    }
   }
 }
@@ -0,0 +1,81 @@
+package com.gigamonkeys.dungeon;
+
+import java.util.Arrays;
+
+/**
+ * Splits a line of input into lowercased words in a single pass over the
+ * characters. Words are runs of ASCII letters, digits, and underscores, as
+ * with the regexp \w+. Words in the vocabulary come back as the vocabulary's
+ * interned String, so known words cost no allocation; only unknown words are
+ * copied into new Strings.
+ */
+public class Tokenizer {
+
+  private final Vocabulary vocabulary;
+
+  // Scratch space reused from line to line.
+  private char[] chars = new char[128];
+  private String[] words = new String[8];
+  private int[] ids = new int[8];
+  private int count = 0;
+
+  public Tokenizer(Vocabulary vocabulary) {
+    this.vocabulary = vocabulary;
+  }
+
+  /**
+   * Tokenize the line. After this returns, id(i) gives the vocabulary id of
+   * each token.
+   */
+  public String[] tokenize(String line) {
+    count = 0;
+    var n = line.length();
+    var i = 0;
+    while (i < n) {
+      // Skip separators.
+      while (i < n && !isWord(lower(line.charAt(i)))) i++;
+      if (i == n) break;
+
+      // Copy the word, lowercased, into scratch while hashing it.
+      var len = 0;
+      var hash = 0;
+      char c;
+      while (i < n && isWord(c = lower(line.charAt(i)))) {
+        if (len == chars.length) chars = Arrays.copyOf(chars, len * 2);
+        chars[len++] = c;
+        hash = 31 * hash + c;
+        // Dotted capital I lowercases to i plus a combining dot, which ends the word.
+        if (line.charAt(i++) == '\u0130') break;
+      }
+      var id = vocabulary.id(chars, 0, len, hash);
+      add(id != Vocabulary.UNKNOWN ? vocabulary.word(id) : new String(chars, 0, len), id);
+    }
+    return Arrays.copyOf(words, count);
+  }
+
+  /**
+   * The vocabulary id of the ith token from the last call to tokenize.
+   */
+  public int id(int i) {
+    return ids[i];
+  }
+
+  private void add(String word, int id) {
+    if (count == words.length) {
+      words = Arrays.copyOf(words, count * 2);
+      ids = Arrays.copyOf(ids, count * 2);
+    }
+    words[count] = word;
+    ids[count] = id;
+    count++;
+  }
+
+  private static char lower(char c) {
+    if (c >= 'A' && c <= 'Z') return (char) (c + ('a' - 'A'));
+    return c < 128 ? c : Character.toLowerCase(c);
+  }
+
+  private static boolean isWord(char c) {
+    return (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '_';
+  }
+}
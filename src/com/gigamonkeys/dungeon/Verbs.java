@@ -0,0 +1,117 @@
+package com.gigamonkeys.dungeon;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/**
+ * The registered commands, kept sorted by verb so any unique prefix of a verb
+ * can be resolved with a binary search and the commands sharing an ambiguous
+ * prefix are a contiguous run of the array. Exact verbs are found first by
+ * their vocabulary id.
+ */
+public class Verbs {
+
+  private final Vocabulary vocabulary;
+  private Command[] sorted = new Command[0];
+  private Command[] byId = new Command[0];
+
+  // Only built if someone misspells a verb.
+  private Spelling spelling = null;
+
+  public Verbs(Vocabulary vocabulary) {
+    this.vocabulary = vocabulary;
+  }
+
+  public void add(Command command) {
+    // Check for a duplicate before changing anything.
+    var i = -(Arrays.binarySearch(sorted, command, Comparator.comparing(Command::verb)) + 1);
+    if (i < 0) {
+      throw new IllegalArgumentException("Already have a command for " + command.verb());
+    }
+
+    var id = vocabulary.add(command.verb());
+    if (id >= byId.length) {
+      byId = Arrays.copyOf(byId, id + 1);
+    }
+    byId[id] = command;
+    if (spelling != null) spelling.add(command.verb());
+
+    var grown = new Command[sorted.length + 1];
+    System.arraycopy(sorted, 0, grown, 0, i);
+    grown[i] = command;
+    System.arraycopy(sorted, i, grown, i + 1, sorted.length - i);
+    sorted = grown;
+  }
+
+  /**
+   * The command whose verb is the given word or of which it is a unique
+   * prefix. Null if no verb or more than one verb starts with the word.
+   */
+  public Command find(String word) {
+    return find(vocabulary.id(word), word);
+  }
+
+  /**
+   * Like find(word) for a word whose vocabulary id is already known, e.g. from
+   * the Tokenizer, so an exact verb isn't looked up in the vocabulary again.
+   */
+  public Command find(int id, String word) {
+    if (id != Vocabulary.UNKNOWN && id < byId.length && byId[id] != null) {
+      return byId[id];
+    }
+    var i = first(word);
+    if (i < sorted.length && sorted[i].verb().startsWith(word)) {
+      var unique = i + 1 == sorted.length || !sorted[i + 1].verb().startsWith(word);
+      return unique ? sorted[i] : null;
+    }
+    return null;
+  }
+
+  /**
+   * The commands whose verbs start with the word, in order. Meant for
+   * explaining a failed find.
+   */
+  public Stream<Command> candidates(String word) {
+    var start = first(word);
+    var end = start;
+    while (end < sorted.length && sorted[end].verb().startsWith(word)) end++;
+    return Arrays.stream(sorted, start, end);
+  }
+
+  /**
+   * The verb closest to a word that isn't a verb or a prefix of one.
+   */
+  public Optional<Spelling.Suggestion> suggest(String word) {
+    if (spelling == null) {
+      spelling = new Spelling();
+      for (var c : sorted) spelling.add(c.verb());
+    }
+    return spelling.suggest(word);
+  }
+
+  /**
+   * All the commands, sorted by verb.
+   */
+  public Stream<Command> all() {
+    return Arrays.stream(sorted);
+  }
+
+  /**
+   * Index of the first verb not less than word.
+   */
+  private int first(String word) {
+    var lo = 0;
+    var hi = sorted.length;
+    while (lo < hi) {
+      var mid = (lo + hi) >>> 1;
+      if (sorted[mid].verb().compareTo(word) < 0) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+}
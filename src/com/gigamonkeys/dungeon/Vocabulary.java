@@ -0,0 +1,144 @@
+package com.gigamonkeys.dungeon;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * The words the game knows about: command verbs, directions, the names of
+ * things in the world, and a few connectives. Each word is interned and given
+ * a small integer id so the tokenizer can hand out the same String for every
+ * occurrence of a known word and the parse layer can compare ids rather than
+ * characters.
+ */
+public class Vocabulary {
+
+  public static final int UNKNOWN = -1;
+
+  // Generated worlds reuse a small set of names so there's no point walking
+  // all of a huge world looking for new ones.
+  private static final int MAX_ROOMS = 10_000;
+
+  private String[] words = new String[64];
+  private int size = 0;
+
+  // Open addressing hash table of id + 1, zero meaning empty.
+  private int[] table = new int[128];
+
+  /**
+   * Add a word, returning its id. Adding a word that is already present just
+   * returns the existing id.
+   */
+  public int add(String word) {
+    var w = word.toLowerCase();
+    var existing = id(w);
+    if (existing != UNKNOWN) return existing;
+
+    if (size == words.length) {
+      words = Arrays.copyOf(words, size * 2);
+    }
+    if ((size + 1) * 2 > table.length) {
+      rehash(table.length * 2);
+    }
+    var id = size++;
+    words[id] = w.intern();
+    insert(id);
+    return id;
+  }
+
+  /**
+   * Add the directions, including their one-letter abbreviations.
+   */
+  public void addDirections() {
+    for (var d : Direction.values()) {
+      var name = d.name().toLowerCase();
+      add(name);
+      add(name.substring(0, 1));
+    }
+  }
+
+  /**
+   * The names of all the things in the rooms reachable from start, up to
+   * MAX_ROOMS of them.
+   */
+  public static Set<String> names(Room start) {
+    var names = new HashSet<String>();
+    Set<Room> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+    var queue = new ArrayDeque<Room>();
+    seen.add(start);
+    queue.add(start);
+    while (!queue.isEmpty() && seen.size() < MAX_ROOMS) {
+      var room = queue.remove();
+      room.allThings().forEach(t -> names.add(t.name()));
+      for (var d : Direction.values()) {
+        room.door(d).map(door -> door.from(room)).filter(seen::add).ifPresent(queue::add);
+      }
+    }
+    return names;
+  }
+
+  /**
+   * The id of the word or UNKNOWN. Cheap for interned words since their hash
+   * code is cached and the comparison is by identity.
+   */
+  public int id(String word) {
+    var mask = table.length - 1;
+    for (var i = word.hashCode() & mask;; i = (i + 1) & mask) {
+      var slot = table[i];
+      if (slot == 0) return UNKNOWN;
+      var w = words[slot - 1];
+      if (w == word || w.equals(word)) return slot - 1;
+    }
+  }
+
+  /**
+   * The id of the word in chars[start, end) or UNKNOWN. The hash must be
+   * computed the same way as String.hashCode.
+   */
+  public int id(char[] chars, int start, int end, int hash) {
+    var mask = table.length - 1;
+    for (var i = hash & mask;; i = (i + 1) & mask) {
+      var slot = table[i];
+      if (slot == 0) return UNKNOWN;
+      if (matches(words[slot - 1], chars, start, end)) return slot - 1;
+    }
+  }
+
+  /**
+   * The interned word with the given id.
+   */
+  public String word(int id) {
+    return words[id];
+  }
+
+  public int size() {
+    return size;
+  }
+
+  private static boolean matches(String word, char[] chars, int start, int end) {
+    if (word.length() != end - start) return false;
+    for (var i = 0; i < word.length(); i++) {
+      if (word.charAt(i) != chars[start + i]) return false;
+    }
+    return true;
+  }
+
+  private void insert(int id) {
+    var mask = table.length - 1;
+    var i = words[id].hashCode() & mask;
+    while (table[i] != 0) {
+      i = (i + 1) & mask;
+    }
+    table[i] = id + 1;
+  }
+
+  private void rehash(int capacity) {
+    table = new int[capacity];
+    for (var id = 0; id < size; id++) {
+      insert(id);
+    }
+  }
+}
@@ -0,0 +1,503 @@
+package com.gigamonkeys.dungeon;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Binary world files. A world file holds every room, its doors, and the things
+ * in it, and is memory mapped when opened so Rooms are only built from the
+ * file when something first looks inside them. Opening a world costs the same
+ * however big it is and the heap only grows with the rooms actually visited.
+ *
+ * Layout, all big-endian ints unless noted:
+ *
+ *   header:  magic, version, width, height, room count, start room,
+ *            string count, string table offset, name count, name table
+ *            offset, room table offset
+ *   rooms:   room table of offsets then the room records
+ *   strings: string table of offsets then the strings, each a length
+ *            and UTF-8 bytes
+ *   names:   string ids of all the thing names in the world
+ *
+ * A room record is its description's string id, a byte count of doors each
+ * being a direction byte, the other room's id, and the description's string
+ * id, and then its things. Things are written as a count followed by each
+ * thing: a kind byte, string ids of name, description, and where it is
+ * placed, a flags byte (portable, monster, and whether a monster wanders or
+ * lurks), hit points, its count if it's a stack (from version 2 on), any
+ * kind-specific fields, and then its own things.
+ *
+ * Width and height are zero unless the world is a Generator grid, in which
+ * case room ids are row-major grid positions.
+ *
+ * The file holds data, not code, so Things with custom behavior come back as
+ * plain instances of the class they extend.
+ */
+public class WorldFile {
+
+  private static final int MAGIC = 0x444e474e; // "DNGN"
+  private static final int VERSION = 2;
+  private static final int HEADER = 44;
+  private static final int NONE = -1;
+
+  // Kinds of thing
+  private static final byte THING = 0;
+  private static final byte FURNITURE = 1;
+  private static final byte WEAPON = 2;
+  private static final byte FOOD = 3;
+  private static final byte MONSTER = 4;
+
+  // Flags
+  private static final byte PORTABLE = 1;
+  private static final byte IS_MONSTER = 2;
+  private static final byte WANDERS = 4;
+  private static final byte LURKS = 8;
+
+  // Only cache decoded strings for tables up to this size.
+  private static final int MAX_CACHED_STRINGS = 1 << 16;
+
+  private final MappedByteBuffer map;
+  private final int version;
+  private final int width;
+  private final int height;
+  private final int roomCount;
+  private final int start;
+  private final int stringCount;
+  private final int strings;
+  private final int nameCount;
+  private final int names;
+  private final int rooms;
+  private final String[] stringCache;
+  private final Map<Integer, Room> loaded = new HashMap<>();
+
+  private WorldFile(MappedByteBuffer map) throws IOException {
+    this.map = map;
+    if (map.getInt(0) != MAGIC) throw new IOException("Not a world file");
+    this.version = map.getInt(4);
+    if (version < 1 || version > VERSION) throw new IOException("Unsupported world file version " + version);
+    this.width = map.getInt(8);
+    this.height = map.getInt(12);
+    this.roomCount = map.getInt(16);
+    this.start = map.getInt(20);
+    this.stringCount = map.getInt(24);
+    this.strings = map.getInt(28);
+    this.nameCount = map.getInt(32);
+    this.names = map.getInt(36);
+    this.rooms = map.getInt(40);
+    this.stringCache = stringCount <= MAX_CACHED_STRINGS ? new String[stringCount] : null;
+  }
+
+  /**
+   * Map a world file. Nothing is read beyond the header until rooms are asked
+   * for.
+   */
+  public static WorldFile open(Path path) throws IOException {
+    try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      if (channel.size() > Integer.MAX_VALUE) throw new IOException("World file too big to map: " + path);
+      return new WorldFile(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    }
+  }
+
+  public Room start() {
+    return room(start);
+  }
+
+  /**
+   * The room with the given id. Returns the same Room every time so Doors can
+   * compare rooms by identity. The room's contents and doors are loaded the
+   * first time something looks at them.
+   */
+  public Room room(int id) {
+    return loaded.computeIfAbsent(id, i -> new MappedRoom(i, description(i), this));
+  }
+
+  public int rooms() {
+    return roomCount;
+  }
+
+  public int width() {
+    return width;
+  }
+
+  public int height() {
+    return height;
+  }
+
+  /**
+   * Number of rooms that have been created so far.
+   */
+  public int materialized() {
+    return loaded.size();
+  }
+
+  /**
+   * The names of all the things in the world.
+   */
+  public List<String> names() {
+    var result = new ArrayList<String>(nameCount);
+    for (var i = 0; i < nameCount; i++) {
+      result.add(string(map.getInt(names + i * 4)));
+    }
+    return result;
+  }
+
+  //////////////////////////////////////////////////////////////////////////////
+  // Reading
+
+  /**
+   * Makes the doors for rooms read from the file.
+   */
+  interface Doors {
+    Door door(String description, Room room, int other);
+  }
+
+  int roomOffset(int id) {
+    return map.getInt(rooms + id * 4);
+  }
+
+  /**
+   * The description of the room with the given id.
+   */
+  String description(int id) {
+    return string(map.getInt(roomOffset(id)));
+  }
+
+  String string(int id) {
+    if (id == NONE) return null;
+    if (stringCache != null && stringCache[id] != null) return stringCache[id];
+    var offset = map.getInt(strings + id * 4);
+    var length = map.getInt(offset);
+    var bytes = new byte[length];
+    map.get(offset + 4, bytes);
+    var s = new String(bytes, StandardCharsets.UTF_8);
+    if (stringCache != null) stringCache[id] = s;
+    return s;
+  }
+
+  /**
+   * Read a room record into the given room, which must already exist. Other
+   * rooms are only referred to by id.
+   */
+  void load(Room room, int id) {
+    load(room, id, (description, r, other) -> new LazyDoor(description, r, other, this));
+  }
+
+  /**
+   * Read a room record into the given room using doors to make its doors.
+   */
+  void load(Room room, int id, Doors doors) {
+    var b = map.duplicate().position(roomOffset(id) + 4);
+    var count = b.get();
+    for (var i = 0; i < count; i++) {
+      var d = Direction.values()[b.get()];
+      var other = b.getInt();
+      var description = string(b.getInt());
+      room.addDoor(d, doors.door(description, room, other));
+    }
+    readThings(b, room);
+  }
+
+  private void readThings(ByteBuffer b, Location location) {
+    var count = b.getInt();
+    for (var i = 0; i < count; i++) {
+      var kind = b.get();
+      var name = string(b.getInt());
+      var description = string(b.getInt());
+      var where = string(b.getInt());
+      var flags = b.get();
+      var hitPoints = b.getInt();
+      var stack = version >= 2 ? b.getInt() : 1;
+      var thing =
+        switch (kind) {
+          case FURNITURE -> new Thing.Furniture(name, description);
+          case WEAPON -> new Thing.Weapon(name, description, new Attack.Simple(string(b.getInt()), b.getInt()));
+          case FOOD -> new Thing.Food(name, description, string(b.getInt()));
+          case MONSTER -> new Thing.Monster(name, description, string(b.getInt()), hitPoints, (flags & PORTABLE) != 0);
+          default -> new Thing(name, description, (flags & PORTABLE) != 0, (flags & IS_MONSTER) != 0, hitPoints);
+        };
+      thing.setHitPoints(hitPoints);
+      if ((flags & WANDERS) != 0) thing.setFlags(Thing.Monster.WANDERS);
+      if ((flags & LURKS) != 0) thing.setFlags(thing.flags() | Thing.Monster.LURKS);
+      if (stack != 1) thing.setCount(stack);
+      readThings(b, thing);
+      location.placeThing(thing, where);
+    }
+  }
+
+  /**
+   * A room whose contents and doors are read from the file on first use.
+   */
+  private static class MappedRoom extends Room {
+
+    private final int id;
+    private final WorldFile world;
+    private boolean loaded = false;
+
+    MappedRoom(int id, String description, WorldFile world) {
+      super(description);
+      this.id = id;
+      this.world = world;
+    }
+
+    private void load() {
+      if (!loaded) {
+        loaded = true;
+        world.load(this, id);
+      }
+    }
+
+    public Contents contents() {
+      load();
+      return super.contents();
+    }
+
+    public Optional<Door> door(Direction d) {
+      load();
+      return super.door(d);
+    }
+
+    public String description() {
+      load();
+      return super.description();
+    }
+  }
+
+  /**
+   * A door that only creates the room on the other side when someone goes
+   * through it.
+   */
+  private static record LazyDoor(String description, Room room, int other, WorldFile world) implements Door {
+    public Room from(Room r) {
+      if (r == room) {
+        return world.room(other);
+      } else if (r == world.loaded.get(other)) {
+        return room;
+      } else {
+        throw new Error("Not connected room: " + r);
+      }
+    }
+  }
+
+  //////////////////////////////////////////////////////////////////////////////
+  // Writing
+
+  /**
+   * Write all the rooms reachable from start.
+   */
+  public static void write(Room start, Path path) throws IOException {
+    var graph = Graph.of(start);
+    try (var writer = new Writer(path, graph.size(), 0, 0, 0)) {
+      for (var id = 0; id < graph.size(); id++) {
+        var room = graph.room(id);
+        var doors = new ArrayList<DoorRecord>();
+        for (var d : Direction.values()) {
+          var other = graph.neighbour(id, d);
+          if (other != Graph.NONE) doors.add(new DoorRecord(d, other, room.door(d).get().description()));
+        }
+        writer.room(room.baseDescription(), doors, room.placedThings());
+      }
+    }
+  }
+
+  /**
+   * Write a generated world one row at a time without building the whole
+   * thing in memory.
+   */
+  public static void write(Generator generator, Path path) throws IOException {
+    var config = generator.config();
+    var w = config.width();
+    var h = config.height();
+
+    try (var writer = new Writer(path, config.rooms(), w, h, 0)) {
+      var row = generator.row(0);
+      for (var y = 0; y < h; y++) {
+        var next = y + 1 < h ? generator.row(y + 1) : null;
+        for (var x = 0; x < w; x++) {
+          var i = y * w + x;
+          var doors = new ArrayList<DoorRecord>(4);
+          if ((row.doors()[x] & Generator.NORTH_DOOR) != 0) {
+            doors.add(new DoorRecord(Direction.NORTH, i - w, Generator.doorDescription(i, Generator.NORTH_DOOR)));
+          }
+          if (x + 1 < w && (row.doors()[x + 1] & Generator.WEST_DOOR) != 0) {
+            doors.add(new DoorRecord(Direction.EAST, i + 1, Generator.doorDescription(i + 1, Generator.WEST_DOOR)));
+          }
+          if (next != null && (next.doors()[x] & Generator.NORTH_DOOR) != 0) {
+            doors.add(new DoorRecord(Direction.SOUTH, i + w, Generator.doorDescription(i + w, Generator.NORTH_DOOR)));
+          }
+          if ((row.doors()[x] & Generator.WEST_DOOR) != 0) {
+            doors.add(new DoorRecord(Direction.WEST, i - 1, Generator.doorDescription(i, Generator.WEST_DOOR)));
+          }
+          var room = row.rooms()[x];
+          writer.room(room.baseDescription(), doors, room.placedThings());
+        }
+        row = next;
+      }
+    }
+  }
+
+  static record DoorRecord(Direction direction, int room, String description) {}
+
+  /**
+   * Streams room records to the file, collecting the strings as it goes and
+   * filling in the header and tables when closed.
+   */
+  static class Writer implements Closeable {
+
+    private final FileChannel channel;
+    private final DataOutputStream out;
+    private final int[] roomOffsets;
+    private final int width;
+    private final int height;
+    private final int start;
+    private final int base;
+    private final Map<String, Integer> stringIds = new HashMap<>();
+    private final List<String> strings = new ArrayList<>();
+    private final Set<Integer> names = new LinkedHashSet<>();
+    private int next = 0;
+
+    Writer(Path path, int rooms, int width, int height, int start) throws IOException {
+      this.channel =
+        FileChannel.open(
+          path,
+          StandardOpenOption.CREATE,
+          StandardOpenOption.WRITE,
+          StandardOpenOption.READ,
+          StandardOpenOption.TRUNCATE_EXISTING
+        );
+      this.roomOffsets = new int[rooms];
+      this.width = width;
+      this.height = height;
+      this.start = start;
+      this.base = HEADER + rooms * 4;
+      channel.position(base);
+      this.out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+    }
+
+    void room(String description, List<DoorRecord> doors, Collection<Location.PlacedThing> things)
+      throws IOException {
+      roomOffsets[next++] = offset();
+      out.writeInt(string(description));
+      out.writeByte(doors.size());
+      for (var d : doors) {
+        out.writeByte(d.direction().ordinal());
+        out.writeInt(d.room());
+        out.writeInt(string(d.description()));
+      }
+      things(things);
+    }
+
+    private void things(Collection<Location.PlacedThing> things) throws IOException {
+      out.writeInt(things.size());
+      for (var pt : things) {
+        var t = pt.thing();
+        var kind = t instanceof Thing.Furniture
+          ? FURNITURE
+          : t instanceof Thing.Weapon
+            ? WEAPON
+            : t instanceof Thing.Food ? FOOD : t instanceof Thing.Monster ? MONSTER : THING;
+        var name = string(t.name());
+        names.add(name);
+        out.writeByte(kind);
+        out.writeInt(name);
+        // Things that compute their whole description have no base description.
+        out.writeInt(string(t.baseDescription() != null ? t.baseDescription() : t.description()));
+        out.writeInt(string(pt.where()));
+        out.writeByte(
+          (t.isPortable() ? PORTABLE : 0) |
+          (t.isMonster() ? IS_MONSTER : 0) |
+          (t.flag(Thing.Monster.WANDERS) ? WANDERS : 0) |
+          (t.flag(Thing.Monster.LURKS) ? LURKS : 0)
+        );
+        out.writeInt(t.hitPoints());
+        out.writeInt(t.count());
+        switch (kind) {
+          case WEAPON -> {
+            out.writeInt(string(t.attack().description()));
+            out.writeInt(t.attack().damage());
+          }
+          case FOOD -> out.writeInt(string(((Thing.Food) t).eatDescription()));
+          case MONSTER -> out.writeInt(string(((Thing.Monster) t).deadDescription()));
+          default -> {}
+        }
+        things(t.placedThings());
+      }
+    }
+
+    private int string(String s) {
+      if (s == null) return NONE;
+      return stringIds.computeIfAbsent(
+        s,
+        k -> {
+          strings.add(k);
+          return strings.size() - 1;
+        }
+      );
+    }
+
+    private int offset() throws IOException {
+      long offset = (long) base + out.size();
+      if (out.size() < 0 || offset > Integer.MAX_VALUE) throw new IOException("World too big for one file");
+      return (int) offset;
+    }
+
+    public void close() throws IOException {
+      try {
+        // Strings
+        var stringOffsets = new int[strings.size()];
+        for (var i = 0; i < strings.size(); i++) {
+          stringOffsets[i] = offset();
+          var bytes = strings.get(i).getBytes(StandardCharsets.UTF_8);
+          out.writeInt(bytes.length);
+          out.write(bytes);
+        }
+        var stringTable = offset();
+        for (var o : stringOffsets) out.writeInt(o);
+
+        // Names
+        var nameTable = offset();
+        for (var n : names) out.writeInt(n);
+        offset();
+        out.flush();
+
+        // Header and room table
+        var header = ByteBuffer.allocate(base);
+        header
+          .putInt(MAGIC)
+          .putInt(VERSION)
+          .putInt(width)
+          .putInt(height)
+          .putInt(roomOffsets.length)
+          .putInt(start)
+          .putInt(strings.size())
+          .putInt(stringTable)
+          .putInt(names.size())
+          .putInt(nameTable)
+          .putInt(HEADER);
+        for (var o : roomOffsets) header.putInt(o);
+        header.flip();
+        channel.position(0);
+        while (header.hasRemaining()) channel.write(header);
+        channel.force(false);
+      } finally {
+        out.close();
+      }
+    }
+  }
+}